@@ -0,0 +1,153 @@
+import java.io.OutputStream;
+
+import benchmarks.Targets;
+
+/**
+ * The GameTargets class implements the benchmark targets on top of the game
+ * classes. It is loaded by name from Targets.load(), because it lives in the
+ * unnamed package next to the game.
+ */
+public class GameTargets implements Targets {
+
+	@Override
+	public Board newBoard(int width, int height, int winLength) {
+		GameBoard board = GameBoard.create(width, height, winLength);
+		return new Board() {
+			@Override
+			public void updateBoard(String player, int row, int col) {
+				board.updateBoard(player, row, col);
+			}
+
+			@Override
+			public String checkWin() {
+				return board.checkWin();
+			}
+
+			@Override
+			public void resetBoard() {
+				board.resetBoard();
+			}
+
+			@Override
+			public int getWidth() {
+				return board.getWidth();
+			}
+
+			@Override
+			public int getHeight() {
+				return board.getHeight();
+			}
+		};
+	}
+
+	@Override
+	public Parser newDispatcherParser() {
+		Sink sink = new Sink();
+		CommandLine args = new CommandLine();
+		CommandDispatcher<Sink> commands = new CommandDispatcher<Sink>()
+				.register("size", (s, a) -> s.add(a.nextInt() + a.nextInt() + a.nextInt()))
+				.register("name", (s, a) -> s.add(1))
+				.register("move", (s, a) -> s.add(a.nextToken().length() + a.nextInt() + a.nextInt()))
+				.register("exit", (s, a) -> s.add(a.nextToken().length()))
+				.register("restart", (s, a) -> s.add(a.nextToken().length()))
+				.register("ready", (s, a) -> s.add(2));
+		return (line, length) -> {
+			sink.sum = 0;
+			args.reset(line, length);
+			commands.dispatch(sink, args);
+			return sink.sum;
+		};
+	}
+
+	@Override
+	public Parser newSplitParser() {
+		return (line, length) -> {
+			String[] parts = new String(line, 0, length).split(" ");
+			switch (parts[0]) {
+			case "size":
+				return Integer.parseInt(parts[1]) + Integer.parseInt(parts[2]) + Integer.parseInt(parts[3]);
+			case "name":
+				return 1;
+			case "move":
+				return parts[1].length() + Integer.parseInt(parts[2]) + Integer.parseInt(parts[3]);
+			case "exit":
+			case "restart":
+				return parts[1].length();
+			case "ready":
+				return 2;
+			default:
+				return 0;
+			}
+		};
+	}
+
+	@Override
+	public Fanout newFanout(int writers, boolean queued) {
+		GameRoom room = new GameRoom(1, ServerBoard.SIZE, ServerBoard.SIZE, ServerBoard.SIZE, Runnable::run);
+		CountingConnection[] connections = new CountingConnection[writers];
+		for (int i = 0; i < writers; i++) {
+			connections[i] = new CountingConnection(queued);
+			room.addPlayer(connections[i]);
+		}
+		return () -> {
+			room.broadcast(Message.move("X", 1, 2));
+			long bytes = 0;
+			for (CountingConnection connection : connections) {
+				connection.flush();
+				bytes += connection.bytes;
+			}
+			return bytes;
+		};
+	}
+
+	/**
+     * The Sink class accumulates the arguments of dispatched commands.
+     */
+	private static class Sink {
+		private int sum;
+
+		void add(int value) {
+			sum += value;
+		}
+	}
+
+	/**
+     * The CountingConnection class is a connection without a socket. It
+     * either counts the bytes it is sent, or passes them through an
+     * OutboundQueue drained on the calling thread into a discarding stream.
+     */
+	private static class CountingConnection implements ClientConnection {
+		private final OutboundQueue queue;
+		private long bytes;
+
+		CountingConnection(boolean queued) {
+			this.queue = queued
+					? new OutboundQueue(OutputStream.nullOutputStream(), Runnable::run, OutboundQueue.DEFAULT_CAPACITY, () -> {})
+					: null;
+		}
+
+		@Override
+		public void send(Message message) {
+			byte[] text = message.getTextBytes();
+			bytes += text.length;
+			if (queue != null) {
+				queue.offer(text);
+			}
+		}
+
+		@Override
+		public void flush() {
+			if (queue != null) {
+				queue.flush();
+			}
+		}
+
+		@Override
+		public void switchToBinary() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The BoardBenchmark class measures the board operations run for every
+ * move: updateBoard(), checkWin() and resetBoard(). Each invocation plays a
+ * whole recorded game, checking the verdict after every move as the server
+ * does, so the result is the cost of one game on the board.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+	private static final long SEED = 2396;
+
+	@Param({"3x3x3", "15x15x5", "25x25x5"})
+	public String size;
+
+	private Targets.Board board;
+	private int[] rows;
+	private int[] cols;
+	private int checkRow;
+	private int checkCol;
+
+	/**
+     * Creates the board and records a game of random moves, which ends when
+     * a player wins or the board is full.
+     */
+	@Setup
+	public void setUp() {
+		String[] dimensions = size.split("x");
+		board = Targets.load().newBoard(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]),
+				Integer.parseInt(dimensions[2]));
+
+		List<Integer> cells = new ArrayList<>();
+		for (int cell = 0; cell < board.getWidth() * board.getHeight(); cell++) {
+			cells.add(cell);
+		}
+		Collections.shuffle(cells, new Random(SEED));
+
+		List<Integer> game = new ArrayList<>();
+		for (int cell : cells) {
+			board.updateBoard(game.size() % 2 == 0 ? "X" : "O", cell / board.getWidth(), cell % board.getWidth());
+			game.add(cell);
+			if (!board.checkWin().equals("continue")) {
+				break;
+			}
+		}
+		board.resetBoard();
+
+		rows = new int[game.size()];
+		cols = new int[game.size()];
+		for (int i = 0; i < game.size(); i++) {
+			rows[i] = game.get(i) / board.getWidth();
+			cols[i] = game.get(i) % board.getWidth();
+		}
+		checkRow = rows[rows.length / 2];
+		checkCol = cols[cols.length / 2];
+	}
+
+	/**
+     * Plays the recorded game from an empty board.
+     *
+     * @return the verdict of the game
+     */
+	@Benchmark
+	public String playGame() {
+		board.resetBoard();
+		String result = "continue";
+		for (int i = 0; i < rows.length; i++) {
+			board.updateBoard(i % 2 == 0 ? "X" : "O", rows[i], cols[i]);
+			result = board.checkWin();
+		}
+		return result;
+	}
+
+	/**
+     * Makes one move and checks the verdict, on a fresh board.
+     *
+     * @return the verdict after the move
+     */
+	@Benchmark
+	public String moveAndCheck() {
+		board.resetBoard();
+		board.updateBoard("X", checkRow, checkCol);
+		return board.checkWin();
+	}
+
+	/**
+     * Checks the verdict of an unchanged board.
+     *
+     * @return the verdict
+     */
+	@Benchmark
+	public String checkWin() {
+		return board.checkWin();
+	}
+}
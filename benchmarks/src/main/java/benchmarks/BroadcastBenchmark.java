@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The BroadcastBenchmark class measures GameRoom.broadcast() fanning one
+ * move out to N players. With "direct" writers the players only count the
+ * bytes, which isolates the fan-out itself; with "queued" writers every
+ * player passes the message through its own OutboundQueue, drained on the
+ * benchmark thread into a discarding stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+	@Param({"2", "16", "256"})
+	public int writers;
+
+	@Param({"direct", "queued"})
+	public String mode;
+
+	private Targets.Fanout fanout;
+
+	/**
+     * Creates a room seating the requested number of players.
+     */
+	@Setup
+	public void setUp() {
+		fanout = Targets.load().newFanout(writers, mode.equals("queued"));
+	}
+
+	/**
+     * Broadcasts one move and flushes every player.
+     *
+     * @return the total number of bytes sent so far
+     */
+	@Benchmark
+	public long broadcast() {
+		return fanout.broadcastMove();
+	}
+}
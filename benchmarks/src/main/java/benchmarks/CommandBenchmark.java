@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The CommandBenchmark class compares parsing a command line with the
+ * server's CommandDispatcher against splitting it into Strings. Run it with
+ * the gc profiler to see the allocation per line of each parser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+
+	@Param({"move X 1 2", "size 15 15 5", "restart O", "name"})
+	public String command;
+
+	private byte[] line;
+	private Targets.Parser dispatcher;
+	private Targets.Parser split;
+
+	/**
+     * Encodes the line and creates both parsers.
+     */
+	@Setup
+	public void setUp() {
+		line = command.getBytes(StandardCharsets.US_ASCII);
+		Targets targets = Targets.load();
+		dispatcher = targets.newDispatcherParser();
+		split = targets.newSplitParser();
+	}
+
+	/**
+     * Parses the line with the CommandDispatcher.
+     *
+     * @return a checksum of the arguments
+     */
+	@Benchmark
+	public int dispatcher() {
+		return dispatcher.parse(line, line.length);
+	}
+
+	/**
+     * Parses the line with String.split().
+     *
+     * @return a checksum of the arguments
+     */
+	@Benchmark
+	public int split() {
+		return split.parse(line, line.length);
+	}
+}
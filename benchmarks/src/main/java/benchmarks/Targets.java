@@ -0,0 +1,102 @@
+package benchmarks;
+
+/**
+ * The Targets interface exposes the game classes to the benchmarks. The
+ * game is compiled into the unnamed package, which code in a named package
+ * (as JMH requires for benchmarks) cannot reference, so the benchmarks
+ * reach it through these interfaces and an implementation that lives in the
+ * unnamed package of this module.
+ */
+public interface Targets {
+
+	/**
+     * The Board interface is the part of GameBoard driven by the benchmarks.
+     */
+	interface Board {
+		void updateBoard(String player, int row, int col);
+
+		String checkWin();
+
+		void resetBoard();
+
+		int getWidth();
+
+		int getHeight();
+	}
+
+	/**
+     * The Parser interface decodes one command line received by the server.
+     */
+	interface Parser {
+
+		/**
+         * Parses a line and applies it to a sink that only sums the arguments.
+         *
+         * @param line 		the buffer holding the line
+         * @param length 	the number of bytes of the line
+         * @return a checksum of the parsed arguments
+         */
+		int parse(byte[] line, int length);
+	}
+
+	/**
+     * The Fanout interface broadcasts a message to the players of a room.
+     */
+	interface Fanout {
+
+		/**
+         * Broadcasts one move to every player and flushes them.
+         *
+         * @return the number of bytes handed to the players
+         */
+		long broadcastMove();
+	}
+
+	/**
+     * Creates a board of the specified size.
+     *
+     * @param width 		the number of columns
+     * @param height 		the number of rows
+     * @param winLength 	the number of marks in a row needed to win
+     * @return a new board, as created by the server
+     */
+	Board newBoard(int width, int height, int winLength);
+
+	/**
+     * Creates a parser routing lines through the server's CommandDispatcher.
+     *
+     * @return a new parser
+     */
+	Parser newDispatcherParser();
+
+	/**
+     * Creates a parser splitting lines into Strings, as the server did
+     * before the CommandDispatcher.
+     *
+     * @return a new parser
+     */
+	Parser newSplitParser();
+
+	/**
+     * Creates a room with the specified number of players.
+     *
+     * @param writers 	the number of players
+     * @param queued 	true to write through an OutboundQueue per player,
+     *                  false to only count the bytes sent to each player
+     * @return a new fan-out target
+     */
+	Fanout newFanout(int writers, boolean queued);
+
+	/**
+     * Loads the implementation compiled into the unnamed package.
+     *
+     * @return the targets
+     */
+	static Targets load() {
+		try {
+			return (Targets) Class.forName("GameTargets").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("GameTargets is not on the class path", e);
+		}
+	}
+}
@@ -0,0 +1,296 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The BinaryProtocol class defines the compact binary wire format that a
+ * client can switch to instead of the text protocol.
+ *
+ * A client asks for it by sending the text line "protocol binary 1". A
+ * server that supports the version answers with the same line, and from
+ * then on both sides only exchange frames. Any other answer, or none,
+ * means the client stays on the text protocol.
+ *
+ * Every frame is a 2-byte big-endian length followed by that many bytes:
+ * a 1-byte opcode and its payload. Players are encoded as one byte
+ * (0 for X, 1 for O) and a cell as a 2-byte index packing row and column.
+ * Every opcode has a fixed payload length, except NAME and LEADER, which
+ * end with a name; a frame of another length is malformed and is dropped
+ * before it is decoded.
+ */
+public final class BinaryProtocol {
+	public static final int VERSION = 1;
+	public static final String HANDSHAKE = "protocol binary " + VERSION;
+	public static final int MAX_FRAME_LENGTH = 64;
+
+	// client to server
+	public static final byte NAME = 0x01;
+	public static final byte SIZE = 0x02;
+	public static final byte READY = 0x06;
+	public static final byte SPECTATE = 0x08;
+	public static final byte RESUME = 0x09;
+	public static final byte TOP = 0x0a;
+
+	// both directions
+	public static final byte MOVE = 0x03;
+	public static final byte EXIT = 0x04;
+	public static final byte RESTART = 0x05;
+	public static final byte HINT = 0x07;
+
+	// server to client
+	public static final byte BOARD = 0x10;
+	public static final byte P1_JOINED = 0x11;
+	public static final byte P2_JOINED = 0x12;
+	public static final byte RESULT = 0x13;
+	public static final byte START_NEW_GAME = 0x14;
+	public static final byte SESSION = 0x15;
+	public static final byte LEADER = 0x16;
+
+	public static final byte PLAYER_X = 0;
+	public static final byte PLAYER_O = 1;
+	public static final byte RESULT_DRAW = 2;
+
+	private static final int COL_BITS = 5;
+
+	private BinaryProtocol() {
+	}
+
+	/**
+     * Encodes a frame with the specified opcode and payload.
+     *
+     * @param opcode 	the opcode of the frame
+     * @param payload 	the payload bytes
+     * @return the frame, including its length prefix
+     */
+	public static byte[] frame(byte opcode, byte... payload) {
+		int length = 1 + payload.length;
+		byte[] frame = new byte[2 + length];
+		frame[0] = (byte) (length >>> 8);
+		frame[1] = (byte) length;
+		frame[2] = opcode;
+		System.arraycopy(payload, 0, frame, 3, payload.length);
+		return frame;
+	}
+
+	/**
+     * Checks that a frame sent by a client has the payload length of its
+     * opcode. Frames of unknown opcodes are left to the caller.
+     *
+     * @param frame 	the frame, without its length prefix
+     * @param length 	the number of bytes of the frame
+     * @return true if the frame can be decoded, false if it is malformed
+     */
+	public static boolean isValidClientFrame(byte[] frame, int length) {
+		int payload = length - 1;
+		switch (frame[0]) {
+		case NAME:
+			return true;
+		case READY:
+		case HINT:
+		case TOP:
+			return payload == 0;
+		case EXIT:
+		case RESTART:
+			return payload == 1;
+		case SIZE:
+		case MOVE:
+			return payload == 3;
+		case SPECTATE:
+			return payload == 4;
+		case RESUME:
+			return payload == 12;
+		default:
+			return true;
+		}
+	}
+
+	/**
+     * Checks that a frame sent by the server has the payload length of its
+     * opcode. Frames of unknown opcodes are left to the caller.
+     *
+     * @param frame 	the frame, without its length prefix
+     * @param length 	the number of bytes of the frame
+     * @return true if the frame can be decoded, false if it is malformed
+     */
+	public static boolean isValidServerFrame(byte[] frame, int length) {
+		int payload = length - 1;
+		switch (frame[0]) {
+		case P1_JOINED:
+		case P2_JOINED:
+		case START_NEW_GAME:
+			return payload == 0;
+		case EXIT:
+		case RESTART:
+		case RESULT:
+			return payload == 1;
+		case BOARD:
+		case MOVE:
+		case HINT:
+			return payload == 3;
+		case SESSION:
+			return payload == 12;
+		case LEADER:
+			return payload >= 13;
+		default:
+			return true;
+		}
+	}
+
+	/**
+     * Encodes a player identifier.
+     *
+     * @param player 	the player identifier (either X or O)
+     * @return the encoded player
+     */
+	public static byte encodePlayer(String player) {
+		return player.equals("O") ? PLAYER_O : PLAYER_X;
+	}
+
+	/**
+     * Decodes a player identifier.
+     *
+     * @param player 	the encoded player
+     * @return the player identifier (either X or O)
+     */
+	public static String decodePlayer(byte player) {
+		return player == PLAYER_O ? "O" : "X";
+	}
+
+	/**
+     * Packs a row and column into a cell index.
+     *
+     * @param row 	the row index
+     * @param col 	the column index
+     * @return the cell index
+     */
+	public static int packCell(int row, int col) {
+		return (row << COL_BITS) | col;
+	}
+
+	/**
+     * Returns the row of a packed cell index.
+     *
+     * @param cell 	the cell index
+     * @return the row index
+     */
+	public static int cellRow(int cell) {
+		return cell >>> COL_BITS;
+	}
+
+	/**
+     * Returns the column of a packed cell index.
+     *
+     * @param cell 	the cell index
+     * @return the column index
+     */
+	public static int cellCol(int cell) {
+		return cell & ((1 << COL_BITS) - 1);
+	}
+
+	/**
+     * Encodes a move frame.
+     *
+     * @param player 	the player making the move (either X or O)
+     * @param row 		the row index of the move
+     * @param col 		the column index of the move
+     * @return the frame
+     */
+	public static byte[] move(String player, int row, int col) {
+		int cell = packCell(row, col);
+		return frame(MOVE, encodePlayer(player), (byte) (cell >>> 8), (byte) cell);
+	}
+
+	/**
+     * Encodes a hint frame.
+     *
+     * @param row 		the row index of the suggested move
+     * @param col 		the column index of the suggested move
+     * @param score 	the expected score for the player to move, from 0 to 100
+     * @return the frame
+     */
+	public static byte[] hint(int row, int col, int score) {
+		int cell = packCell(row, col);
+		return frame(HINT, (byte) (cell >>> 8), (byte) cell, (byte) score);
+	}
+
+	/**
+     * Encodes a leaderboard entry frame. The totals are capped at the
+     * largest int, and the name, at most PlayerStats.MAX_NAME_LENGTH ASCII
+     * characters, fills the rest of the frame.
+     *
+     * @param rank 		the rank of the player, from 1
+     * @param name 		the name of the player
+     * @param wins 		the wins of the player
+     * @param losses 	the losses of the player
+     * @param draws 	the draws of the player
+     * @return the frame
+     */
+	public static byte[] leader(int rank, String name, long wins, long losses, long draws) {
+		byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+		byte[] payload = new byte[13 + nameBytes.length];
+		payload[0] = (byte) rank;
+		long[] totals = {wins, losses, draws};
+		for (int t = 0; t < totals.length; t++) {
+			int total = (int) Math.min(totals[t], Integer.MAX_VALUE);
+			for (int i = 0; i < 4; i++) {
+				payload[1 + 4 * t + i] = (byte) (total >>> (24 - 8 * i));
+			}
+		}
+		System.arraycopy(nameBytes, 0, payload, 13, nameBytes.length);
+		return frame(LEADER, payload);
+	}
+
+	/**
+     * Decodes one of the big-endian ints of a frame.
+     *
+     * @param frame 	the frame, without its length prefix
+     * @param offset 	the offset of the int in the frame
+     * @return the int
+     */
+	public static int readInt(byte[] frame, int offset) {
+		return ((frame[offset] & 0xff) << 24) | ((frame[offset + 1] & 0xff) << 16)
+				| ((frame[offset + 2] & 0xff) << 8) | (frame[offset + 3] & 0xff);
+	}
+
+	/**
+     * Encodes a frame carrying a session token and a sequence number, i.e.
+     * a session or a resume frame.
+     *
+     * @param opcode 		the opcode of the frame
+     * @param token 		the session token
+     * @param sequence 		the sequence number of a room event
+     * @return the frame
+     */
+	public static byte[] session(byte opcode, long token, int sequence) {
+		byte[] payload = new byte[12];
+		for (int i = 0; i < 8; i++) {
+			payload[i] = (byte) (token >>> (56 - 8 * i));
+		}
+		for (int i = 0; i < 4; i++) {
+			payload[8 + i] = (byte) (sequence >>> (24 - 8 * i));
+		}
+		return frame(opcode, payload);
+	}
+
+	/**
+     * Decodes the session token of a session or a resume frame.
+     *
+     * @param frame 	the frame, without its length prefix
+     * @return the session token
+     */
+	public static long sessionToken(byte[] frame) {
+		long token = 0;
+		for (int i = 1; i <= 8; i++) {
+			token = (token << 8) | (frame[i] & 0xff);
+		}
+		return token;
+	}
+
+	/**
+     * Decodes the sequence number of a session or a resume frame.
+     *
+     * @param frame 	the frame, without its length prefix
+     * @return the sequence number
+     */
+	public static int sessionSequence(byte[] frame) {
+		return readInt(frame, 9);
+	}
+}
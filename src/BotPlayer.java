@@ -0,0 +1,162 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The BotPlayer class is a server-side opponent that takes the second seat
+ * of a room when no second player arrives in time. It is seated like a
+ * client, but instead of writing the room's messages to a socket it reacts
+ * to them on the room: it plays as O whenever it is its turn, agrees to
+ * every new game, and leaves when the other player exits.
+ *
+ * On the classic 3x3 board, moves are looked up in the SolvedGame table, so
+ * playing costs no search. On larger boards, moves are chosen by a
+ * MonteCarloSearch on the registry's search pool, so the room is never blocked while
+ * the bot thinks: the move is sent back to the room when the search ends,
+ * after THINK_MILLIS or THINK_PLAYOUTS playouts at the latest. They are read
+ * from the system properties "bot.think" (default 1000) and "bot.playouts"
+ * (default 200000). The difficulty is the rate of deliberate mistakes, i.e.
+ * moves drawn from the ones that are not optimal, or at random from the
+ * candidates of the search.
+ */
+public class BotPlayer implements ClientConnection {
+	public static final String PLAYER = "O";
+	public static final long THINK_MILLIS = Long.getLong("bot.think", 1000);
+	public static final int THINK_PLAYOUTS = Integer.getInteger("bot.playouts", 200_000);
+
+	private static final String[] LEVELS = {"perfect", "hard", "medium", "easy"};
+	private static final double[] MISTAKE_RATES = {0, 0.1, 0.3, 0.6};
+	private static final Message RESTART = Message.restart(PLAYER);
+
+	private final GameRoom room;
+	private final RoomRegistry rooms;
+	private final double mistakeRate;
+	private boolean restartRequested;
+	private boolean opponentLeft;
+	private boolean movePending;
+	private boolean left;
+	private int game;
+
+	/**
+     * Constructs a BotPlayer for the specified room.
+     *
+     * @param room 			the room the bot plays in
+     * @param rooms 		the registry the room belongs to
+     * @param mistakeRate 	the probability of a deliberate mistake per move
+     */
+	public BotPlayer(GameRoom room, RoomRegistry rooms, double mistakeRate) {
+		this.room = room;
+		this.rooms = rooms;
+		this.mistakeRate = mistakeRate;
+	}
+
+	/**
+     * Returns the mistake rate of a difficulty level.
+     *
+     * @param level 	"perfect", "hard", "medium" or "easy"
+     * @return the probability of a deliberate mistake per move, or 0 for an
+     *         unknown level
+     */
+	public static double mistakeRate(String level) {
+		for (int i = 0; i < LEVELS.length; i++) {
+			if (LEVELS[i].equalsIgnoreCase(level)) {
+				return MISTAKE_RATES[i];
+			}
+		}
+		return 0;
+	}
+
+	/**
+     * Notes the messages the bot has to react to. Runs on the room while it
+     * broadcasts, so the reactions are deferred to flush().
+     *
+     * @param message 	the message broadcast to the room
+     */
+	@Override
+	public void send(Message message) {
+		byte[] frame = message.getFrame();
+		switch (frame[2]) {
+		case BinaryProtocol.RESTART:
+			restartRequested |= !BinaryProtocol.decodePlayer(frame[3]).equals(PLAYER);
+			break;
+		case BinaryProtocol.EXIT:
+			opponentLeft = true;
+			break;
+		case BinaryProtocol.START_NEW_GAME:
+			game++;
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+     * Reacts to the batch the room has just run: leaves if the opponent has
+     * exited, agrees to a new game, or queues its move if it is its turn.
+     * Runs on the room after every batch.
+     */
+	@Override
+	public void flush() {
+		if (opponentLeft) {
+			opponentLeft = false;
+			left = true;
+			rooms.leave(room, this);
+			return;
+		}
+		if (restartRequested) {
+			restartRequested = false;
+			room.execute(() -> room.broadcast(RESTART));
+		}
+		GameBoard board = room.getBoard();
+		if (!movePending && board.getMoveCount() % 2 == 1 && board.checkWin().equals("continue")) {
+			movePending = true;
+			if (board instanceof ServerBoard) {
+				room.execute(this::play);
+			} else {
+				int searchGame = game;
+				int moveCount = board.getMoveCount();
+				rooms.getSearch().search(board, THINK_MILLIS, THINK_PLAYOUTS, mistakeRate)
+						.thenAccept(cell -> room.execute(() -> play(searchGame, moveCount, cell)));
+			}
+		}
+	}
+
+	/**
+     * Makes the bot's move on the 3x3 board. Runs on the room.
+     */
+	private void play() {
+		movePending = false;
+		ServerBoard board = (ServerBoard) room.getBoard();
+		int cell = SolvedGame.chooseMove(board.getXBits(), board.getOBits(), mistakeRate, ThreadLocalRandom.current());
+		if (cell >= 0 && board.getMoveCount() % 2 == 1) {
+			GameSession.move(room, PLAYER, cell / ServerBoard.SIZE, cell % ServerBoard.SIZE);
+		}
+	}
+
+	/**
+     * Makes the move found by a search, unless the bot has left or the
+     * board has changed since the search started. Runs on the room.
+     *
+     * @param searchGame 	the game the search was started in
+     * @param moveCount 	the number of moves when the search was started
+     * @param cell 			the cell found, as row * width + col, or -1
+     */
+	private void play(int searchGame, int moveCount, int cell) {
+		movePending = false;
+		GameBoard board = room.getBoard();
+		if (!left && cell >= 0 && game == searchGame && board.getMoveCount() == moveCount) {
+			GameSession.move(room, PLAYER, cell / board.getWidth(), cell % board.getWidth());
+		}
+	}
+
+	@Override
+	public void switchToBinary() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public String toString() {
+		return "Bot in " + room;
+	}
+}
@@ -0,0 +1,32 @@
+/**
+ * The ClientConnection interface represents the server side of a connected
+ * client, independent of the transport used to reach it.
+ */
+public interface ClientConnection {
+
+	/**
+     * Queues a message for the client, encoded for the protocol the client
+     * is currently using. The message is written by the next flush().
+     *
+     * @param message 	the message to send
+     */
+	void send(Message message);
+
+	/**
+     * Writes every queued message to the client, coalescing them into as
+     * few socket writes as possible. Never blocks.
+     */
+	void flush();
+
+	/**
+     * Switches the connection to the binary protocol. Messages sent before
+     * the switch are still written as text, and every byte received after
+     * the current line is read as binary frames.
+     */
+	void switchToBinary();
+
+	/**
+     * Closes the connection to the client. May be called from any thread.
+     */
+	void close();
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The ClientLoop class is an I/O thread shared by many GameClients. It
+ * multiplexes their channels with a single Selector, reads and decodes what
+ * the server sends, raises the clients' events, and writes their commands,
+ * so one JVM can drive many games with a handful of threads.
+ */
+public class ClientLoop implements Runnable {
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	private final Selector selector;
+	private final Queue<GameClient> pendingClients = new ConcurrentLinkedQueue<>();
+	private final Queue<GameClient> pendingWrites = new ConcurrentLinkedQueue<>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+	private volatile Thread thread;
+
+	/**
+     * Constructs a ClientLoop with a new Selector. The loop runs once
+     * start() is called.
+     *
+     * @throws IOException if the selector cannot be opened
+     */
+	public ClientLoop() throws IOException {
+		this.selector = Selector.open();
+	}
+
+	/**
+     * Starts the loop on a new daemon thread.
+     *
+     * @param name 	the name of the thread
+     * @return this loop
+     */
+	public ClientLoop start(String name) {
+		Thread loopThread = new Thread(this, name);
+		loopThread.setDaemon(true);
+		thread = loopThread;
+		loopThread.start();
+		return this;
+	}
+
+	/**
+     * Checks if the calling thread is this loop's thread.
+     *
+     * @return true if called from the loop
+     */
+	boolean inLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+     * Hands a connected client to this loop, which reads from it from now on.
+     *
+     * @param client 	the client to register
+     */
+	void register(GameClient client) {
+		pendingClients.add(client);
+		selector.wakeup();
+	}
+
+	/**
+     * Schedules a write of a client's queued commands on this loop.
+     *
+     * @param client 	the client with pending output
+     */
+	void requestWrite(GameClient client) {
+		pendingWrites.add(client);
+		selector.wakeup();
+	}
+
+	/**
+     * Runs the select loop until the thread is terminated.
+     */
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				selector.select();
+				GameClient client;
+				while ((client = pendingClients.poll()) != null) {
+					client.register(selector);
+				}
+				while ((client = pendingWrites.poll()) != null) {
+					client.write();
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					client = (GameClient) key.attachment();
+					if (key.isValid() && key.isReadable()) {
+						client.read(readBuffer);
+					}
+					if (key.isValid() && key.isWritable()) {
+						client.write();
+					}
+				}
+			} catch (IOException e) {
+				System.out.println("Client loop: " + e.getMessage());
+			}
+		}
+	}
+}
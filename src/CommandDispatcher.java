@@ -0,0 +1,78 @@
+/**
+ * The CommandDispatcher class routes a text protocol line to the handler
+ * registered for its first token. The handlers are kept in a small
+ * open-addressing table keyed by the token's hash, so finding the handler
+ * takes one hash of the token and normally a single comparison, and neither
+ * the lookup nor the argument parsing allocates.
+ *
+ * @param <T> the type of the object the commands are applied to
+ */
+public class CommandDispatcher<T> {
+	private static final int TABLE_SIZE = 32;
+
+	/**
+     * The Handler interface applies one command to its target.
+     *
+     * @param <T> the type of the object the command is applied to
+     */
+	@FunctionalInterface
+	public interface Handler<T> {
+
+		/**
+         * Applies the command.
+         *
+         * @param target 	the object the command is applied to
+         * @param args 		the line, positioned after the command name
+         */
+		void handle(T target, CommandLine args);
+	}
+
+	private final String[] names = new String[TABLE_SIZE];
+	private final int[] hashes = new int[TABLE_SIZE];
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final Handler<T>[] handlers = new Handler[TABLE_SIZE];
+	private int count;
+
+	/**
+     * Registers the handler of a command.
+     *
+     * @param name 		the command name, i.e. the first token of its lines
+     * @param handler 	the handler applying the command
+     * @return this dispatcher
+     */
+	public CommandDispatcher<T> register(String name, Handler<T> handler) {
+		if (count >= TABLE_SIZE / 2) {
+			throw new IllegalStateException("Too many commands");
+		}
+		int hash = CommandLine.hash(name);
+		int i = hash & (TABLE_SIZE - 1);
+		while (names[i] != null) {
+			i = (i + 1) & (TABLE_SIZE - 1);
+		}
+		names[i] = name;
+		hashes[i] = hash;
+		handlers[i] = handler;
+		count++;
+		return this;
+	}
+
+	/**
+     * Applies a line to a target using the handler of its first token.
+     *
+     * @param target 	the object the command is applied to
+     * @param line 		the line to dispatch
+     * @return true if a handler was found, false if the command is unknown
+     */
+	public boolean dispatch(T target, CommandLine line) {
+		int hash = line.peekHash();
+		int i = hash & (TABLE_SIZE - 1);
+		while (names[i] != null) {
+			if (hashes[i] == hash && line.nextIs(names[i])) {
+				handlers[i].handle(target, line);
+				return true;
+			}
+			i = (i + 1) & (TABLE_SIZE - 1);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,199 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The CommandLine class is a reusable cursor over one text protocol line
+ * held in a byte buffer. Arguments are parsed straight from the buffer, so
+ * reading a command allocates nothing: numbers are decoded in place, and
+ * the tokens the protocol uses as arguments (X, O and draw) are returned
+ * as shared constants.
+ */
+public class CommandLine {
+	public static final int MAX_LENGTH = 1024;
+
+	private static final String[] KNOWN_TOKENS = {"X", "O", "draw"};
+
+	private byte[] buffer;
+	private int end;
+	private int pos;
+
+	/**
+     * Points this cursor at a new line.
+     *
+     * @param buffer 	the buffer holding the line
+     * @param length 	the number of bytes of the line, without its terminator
+     */
+	public void reset(byte[] buffer, int length) {
+		this.buffer = buffer;
+		this.end = length;
+		this.pos = 0;
+	}
+
+	private void skipSpaces() {
+		while (pos < end && buffer[pos] == ' ') {
+			pos++;
+		}
+	}
+
+	private int tokenEnd() {
+		int i = pos;
+		while (i < end && buffer[i] != ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+     * Checks if another token follows.
+     *
+     * @return true if the line has another token, false otherwise
+     */
+	public boolean hasNext() {
+		skipSpaces();
+		return pos < end;
+	}
+
+	/**
+     * Returns the hash of the next token without consuming it, computed
+     * the same way as hash(String).
+     *
+     * @return the hash of the next token
+     */
+	int peekHash() {
+		skipSpaces();
+		int h = 0;
+		for (int i = pos, e = tokenEnd(); i < e; i++) {
+			h = 31 * h + buffer[i];
+		}
+		return h;
+	}
+
+	/**
+     * Consumes the next token if it is equal to the specified word.
+     *
+     * @param word 	an ASCII word
+     * @return true if the next token was the word and has been consumed
+     */
+	public boolean nextIs(String word) {
+		skipSpaces();
+		int e = tokenEnd();
+		if (e - pos != word.length()) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			if (buffer[pos + i] != word.charAt(i)) {
+				return false;
+			}
+		}
+		pos = e;
+		return true;
+	}
+
+	/**
+     * Parses the next token as a decimal integer.
+     *
+     * @return the parsed integer
+     * @throws NumberFormatException if the next token is missing or not a number
+     */
+	public int nextInt() {
+		skipSpaces();
+		int e = tokenEnd();
+		int i = pos;
+		boolean negative = i < e && buffer[i] == '-';
+		if (negative) {
+			i++;
+		}
+		if (i == e || e - i > 9) {
+			throw new NumberFormatException("Invalid number in: " + this);
+		}
+		int value = 0;
+		for (; i < e; i++) {
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("Invalid number in: " + this);
+			}
+			value = value * 10 + digit;
+		}
+		pos = e;
+		return negative ? -value : value;
+	}
+
+	/**
+     * Parses the next token as an unsigned hexadecimal long, e.g. a session
+     * token.
+     *
+     * @return the parsed long
+     * @throws NumberFormatException if the next token is missing or not a
+     *                               hexadecimal number
+     */
+	public long nextHexLong() {
+		skipSpaces();
+		int e = tokenEnd();
+		if (pos == e || e - pos > 16) {
+			throw new NumberFormatException("Invalid number in: " + this);
+		}
+		long value = 0;
+		for (int i = pos; i < e; i++) {
+			int digit = Character.digit(buffer[i], 16);
+			if (digit < 0) {
+				throw new NumberFormatException("Invalid number in: " + this);
+			}
+			value = (value << 4) | digit;
+		}
+		pos = e;
+		return value;
+	}
+
+	/**
+     * Returns the next token. The tokens X, O and draw are returned as
+     * shared constants; any other token is copied into a new String.
+     *
+     * @return the next token
+     * @throws IllegalArgumentException if there is no next token
+     */
+	public String nextToken() {
+		if (!hasNext()) {
+			throw new IllegalArgumentException("Missing argument in: " + this);
+		}
+		for (String token : KNOWN_TOKENS) {
+			if (nextIs(token)) {
+				return token;
+			}
+		}
+		int e = tokenEnd();
+		String token = new String(buffer, pos, e - pos, StandardCharsets.UTF_8);
+		pos = e;
+		return token;
+	}
+
+	/**
+     * Skips the next token.
+     */
+	public void skip() {
+		skipSpaces();
+		pos = tokenEnd();
+	}
+
+	/**
+     * Computes the hash of a word as peekHash() computes it for a token.
+     *
+     * @param word 	an ASCII word
+     * @return the hash of the word
+     */
+	static int hash(String word) {
+		int h = 0;
+		for (int i = 0; i < word.length(); i++) {
+			h = 31 * h + (byte) word.charAt(i);
+		}
+		return h;
+	}
+
+	/**
+     * Returns the whole line as a String, e.g. for logging.
+     *
+     * @return the line
+     */
+	@Override
+	public String toString() {
+		return new String(buffer, 0, end, StandardCharsets.UTF_8);
+	}
+}
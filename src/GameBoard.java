@@ -0,0 +1,109 @@
+/**
+ * The GameBoard interface is the board model shared by every game room.
+ * A board has a width, a height and the number of marks in a row needed to
+ * win, and reports its verdict with the same strings as ServerBoard.
+ */
+public interface GameBoard {
+	int MIN_SIZE = 3;
+	int MAX_SIZE = 25;
+
+	/**
+     * Creates a board for the specified dimensions. The classic 3x3 game
+     * uses the specialized ServerBoard, every other size a GridBoard.
+     *
+     * @param width 		the number of columns
+     * @param height 		the number of rows
+     * @param winLength 	the number of marks in a row needed to win
+     * @return the new empty board
+     * @throws IllegalArgumentException if the dimensions are not supported
+     */
+	static GameBoard create(int width, int height, int winLength) {
+		if (!isValidSize(width, height, winLength)) {
+			throw new IllegalArgumentException("Unsupported board " + width + "x" + height + " with " + winLength + " in a row");
+		}
+		if (width == ServerBoard.SIZE && height == ServerBoard.SIZE && winLength == ServerBoard.SIZE) {
+			return new ServerBoard();
+		}
+		return new GridBoard(width, height, winLength);
+	}
+
+	/**
+     * Checks if a board of the specified dimensions can be created.
+     *
+     * @param width 		the number of columns
+     * @param height 		the number of rows
+     * @param winLength 	the number of marks in a row needed to win
+     * @return true if the dimensions are supported, false otherwise
+     */
+	static boolean isValidSize(int width, int height, int winLength) {
+		return width >= MIN_SIZE && width <= MAX_SIZE
+				&& height >= MIN_SIZE && height <= MAX_SIZE
+				&& winLength >= MIN_SIZE && winLength <= Math.max(width, height);
+	}
+
+	/**
+     * Returns the number of columns of the board.
+     *
+     * @return the width
+     */
+	int getWidth();
+
+	/**
+     * Returns the number of rows of the board.
+     *
+     * @return the height
+     */
+	int getHeight();
+
+	/**
+     * Returns the number of marks in a row needed to win.
+     *
+     * @return the win length
+     */
+	int getWinLength();
+
+	/**
+     * Updates the board at the specified row and column with the player's identifier.
+     *
+     * @param player 	the identifier of the player making the move (either X or O)
+     * @param row 		the row index where the player is making a move
+     * @param col 		the column index where the player is making a move
+     */
+	void updateBoard(String player, int row, int col);
+
+	/**
+     * Retrieves the value at a specified grid position.
+     *
+     * @param row 	the row index of the grid
+     * @param col 	the column index of the grid
+     * @return the value at the specified grid position, or null if empty
+     */
+	String getGrid(int row, int col);
+
+	/**
+     * Checks the current state of the game.
+     *
+     * @return "X" if player X wins, "O" if player O wins, "DRAW" if it's a draw,
+     *         or "continue" if the game is still ongoing
+     */
+	String checkWin();
+
+	/**
+     * Checks if the board is full.
+     *
+     * @return true if the board is full, false otherwise
+     */
+	boolean isBoardFull();
+
+	/**
+     * Returns the number of moves played since the last reset.
+     *
+     * @return the number of occupied cells
+     */
+	int getMoveCount();
+
+	/**
+     * Resets the board by clearing all cells.
+     */
+	void resetBoard();
+}
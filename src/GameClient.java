@@ -0,0 +1,649 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The GameClient class is the client side of one game session, independent
+ * of any user interface. It owns the connection to the server, encodes the
+ * player's commands, decodes what the server sends and raises it as typed
+ * events to its GameListeners. It also keeps the session state: which
+ * player the client is, and a copy of the room's board.
+ *
+ * The connection is served by a ClientLoop, which many clients can share.
+ * Commands may be sent from any thread; events are raised on the loop.
+ *
+ * Once seated, the client is given a session token by the server, and
+ * counts the events of its room to know the sequence number of the last
+ * one it has seen. If the connection drops, a new client can take the
+ * session over with resume(), and is sent only the events it missed.
+ *
+ * On connecting, the client can offer the binary protocol to the server,
+ * and falls back to the text protocol if the server does not accept it
+ * within HANDSHAKE_TIMEOUT milliseconds.
+ */
+public class GameClient {
+	public static final int HANDSHAKE_TIMEOUT = 2000;
+
+	private static final CommandDispatcher<GameClient> COMMANDS = new CommandDispatcher<GameClient>()
+			.register("protocol", (client, args) -> client.onProtocol(args))
+			.register("board", (client, args) -> client.onBoard(args.nextInt(), args.nextInt(), args.nextInt()))
+			.register("P1", (client, args) -> client.onP1Joined())
+			.register("P2", (client, args) -> client.onP2Joined())
+			.register("move", (client, args) -> client.onMove(args.nextToken(), args.nextInt(), args.nextInt()))
+			.register("exit", (client, args) -> client.onExit(args.nextToken()))
+			.register("restart", (client, args) -> client.onRestart(args.nextToken()))
+			.register("start", (client, args) -> client.onStartNewGame())
+			.register("result", (client, args) -> client.onResult(args.nextToken()))
+			.register("hint", (client, args) -> client.onHint(args.nextInt(), args.nextInt(), args.nextInt()))
+			.register("session", (client, args) -> client.onSession(args.nextHexLong(), args.nextInt()))
+			.register("top", (client, args) -> client.onLeader(args.nextInt(), args.nextToken(),
+					Long.parseLong(args.nextToken()), Long.parseLong(args.nextToken()), Long.parseLong(args.nextToken())));
+
+	private final ClientLoop loop;
+	private final int width;
+	private final int height;
+	private final int winLength;
+	private final CopyOnWriteArrayList<GameListener> listeners = new CopyOnWriteArrayList<>();
+	private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+	private final CountDownLatch handshake = new CountDownLatch(1);
+	private final CommandLine args = new CommandLine();
+	private SocketChannel channel;
+	private SelectionKey key;
+	private byte[] line = new byte[BinaryProtocol.MAX_FRAME_LENGTH];
+	private int lineLength;
+	private int frameLength;
+	private int headerBytes;
+	private boolean binaryInput;
+	private volatile boolean binary;
+	private volatile boolean closing;
+	private boolean closed;
+	private volatile String player;
+	private volatile GameBoard board;
+	private int restarts;
+	private volatile long sessionToken;
+	private volatile int sequence;
+
+	/**
+     * Constructs a GameClient for the classic 3x3 game.
+     *
+     * @param loop 	the loop serving the connection
+     */
+	public GameClient(ClientLoop loop) {
+		this(loop, ServerBoard.SIZE, ServerBoard.SIZE, ServerBoard.SIZE);
+	}
+
+	/**
+     * Constructs a GameClient that asks the server for a game on a board of
+     * the specified size.
+     *
+     * @param loop 			the loop serving the connection
+     * @param width 		the number of columns of the board
+     * @param height 		the number of rows of the board
+     * @param winLength 	the number of marks in a row needed to win
+     */
+	public GameClient(ClientLoop loop, int width, int height, int winLength) {
+		this.loop = loop;
+		this.width = width;
+		this.height = height;
+		this.winLength = winLength;
+		this.board = GameBoard.create(width, height, winLength);
+	}
+
+	/**
+     * Subscribes a listener to the events of this client.
+     *
+     * @param listener 	the listener
+     */
+	public void addListener(GameListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+     * Connects to the server. When offering the binary protocol, waits until
+     * the server answers or HANDSHAKE_TIMEOUT milliseconds have passed.
+     *
+     * @param address 		the address of the server
+     * @param offerBinary 	true to offer the binary protocol
+     * @throws IOException if the connection fails
+     */
+	public void connect(InetSocketAddress address, boolean offerBinary) throws IOException {
+		channel = SocketChannel.open(address);
+		channel.socket().setTcpNoDelay(true);
+		channel.configureBlocking(false);
+		if (offerBinary) {
+			sendLine(BinaryProtocol.HANDSHAKE);
+		}
+		loop.register(this);
+		if (offerBinary) {
+			try {
+				handshake.await(HANDSHAKE_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+     * Asks the server to seat this client in a room as an anonymous player.
+     */
+	public void join() {
+		join(null);
+	}
+
+	/**
+     * Asks the server to seat this client in a room, counting its results
+     * under the specified name.
+     *
+     * @param playerName 	the name of the player, see PlayerStats.isValidName(),
+     *                      or null to play anonymously
+     */
+	public void join(String playerName) {
+		if (binary) {
+			send(BinaryProtocol.frame(BinaryProtocol.SIZE, (byte) width, (byte) height, (byte) winLength));
+			send(playerName == null ? BinaryProtocol.frame(BinaryProtocol.NAME)
+					: BinaryProtocol.frame(BinaryProtocol.NAME, playerName.getBytes(StandardCharsets.UTF_8)));
+		} else {
+			sendLine("size " + width + " " + height + " " + winLength);
+			sendLine(playerName == null ? "name" : "name " + playerName);
+		}
+	}
+
+	/**
+     * Marks a cell for this client's player. Must only be called once the
+     * client has joined.
+     *
+     * @param row 	the row index of the move
+     * @param col 	the column index of the move
+     */
+	public void move(int row, int col) {
+		if (binary) {
+			send(BinaryProtocol.move(player, row, col));
+		} else {
+			sendLine("move " + player + " " + row + " " + col);
+		}
+	}
+
+	/**
+     * Asks the server to let this client watch a room instead of playing.
+     * The room's board and moves so far arrive as events, followed by the
+     * events of the room as they happen.
+     *
+     * @param roomId 	the id of the room to watch
+     */
+	public void spectate(int roomId) {
+		if (binary) {
+			send(BinaryProtocol.frame(BinaryProtocol.SPECTATE,
+					(byte) (roomId >>> 24), (byte) (roomId >>> 16), (byte) (roomId >>> 8), (byte) roomId));
+		} else {
+			sendLine("spectate " + roomId);
+		}
+	}
+
+	/**
+     * Takes over the session of another client, e.g. one whose connection
+     * has dropped, and asks the server for the events that client missed.
+     * The events arrive as on the other client, followed by an onSession
+     * event. Must be called once connected, instead of joining.
+     *
+     * @param previous 	the client whose session to resume
+     */
+	public void resume(GameClient previous) {
+		board = previous.board;
+		player = previous.player;
+		restarts = previous.restarts;
+		sessionToken = previous.sessionToken;
+		sequence = previous.sequence;
+		if (binary) {
+			send(BinaryProtocol.session(BinaryProtocol.RESUME, sessionToken, sequence));
+		} else {
+			sendLine("resume " + Long.toHexString(sessionToken) + " " + sequence);
+		}
+	}
+
+	/**
+     * Asks the server for the best move for the player to move. The answer
+     * arrives as an onHint event, unless the game is over.
+     */
+	public void hint() {
+		if (binary) {
+			send(BinaryProtocol.frame(BinaryProtocol.HINT));
+		} else {
+			sendLine("hint");
+		}
+	}
+
+	/**
+     * Asks the server for the leaderboard. Its entries arrive as onLeader
+     * events, best player first.
+     */
+	public void leaderboard() {
+		if (binary) {
+			send(BinaryProtocol.frame(BinaryProtocol.TOP));
+		} else {
+			sendLine("top");
+		}
+	}
+
+	/**
+     * Asks for a new game once the current one has ended. The new game
+     * starts when both players have asked.
+     */
+	public void restart() {
+		if (binary) {
+			send(BinaryProtocol.frame(BinaryProtocol.RESTART, BinaryProtocol.encodePlayer(player)));
+		} else {
+			sendLine("restart " + player);
+		}
+	}
+
+	/**
+     * Leaves the room, which ends the game for the opponent too. The
+     * connection is closed once the server has confirmed, or at once if
+     * the client has not been seated yet.
+     */
+	public void exit() {
+		if (player == null) {
+			close();
+		} else if (binary) {
+			send(BinaryProtocol.frame(BinaryProtocol.EXIT, BinaryProtocol.encodePlayer(player)));
+		} else {
+			sendLine("exit " + player);
+		}
+	}
+
+	private void ready() {
+		if (binary) {
+			send(BinaryProtocol.frame(BinaryProtocol.READY));
+		} else {
+			sendLine("ready");
+		}
+	}
+
+	/**
+     * Returns the player of this client.
+     *
+     * @return "X" or "O", or null until the client has joined
+     */
+	public String getPlayer() {
+		return player;
+	}
+
+	/**
+     * Returns the token of this client's session.
+     *
+     * @return the token, or 0 until the client has joined or if its
+     *         session could not be resumed
+     */
+	public long getSessionToken() {
+		return sessionToken;
+	}
+
+	/**
+     * Returns the sequence number of the last event of the room this client
+     * has seen.
+     *
+     * @return the sequence number
+     */
+	public int getLastSequence() {
+		return sequence;
+	}
+
+	/**
+     * Returns this client's copy of the room's board. It is only updated on
+     * the loop, so other threads should only read it from an event.
+     *
+     * @return the board
+     */
+	public GameBoard getBoard() {
+		return board;
+	}
+
+	/**
+     * Checks if the server accepted the binary protocol.
+     *
+     * @return true if the client uses the binary protocol
+     */
+	public boolean isBinary() {
+		return binary;
+	}
+
+	private void sendLine(String text) {
+		send((text + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+     * Queues encoded bytes and writes them at once when called on the loop,
+     * or asks the loop to write them otherwise.
+     */
+	private void send(byte[] bytes) {
+		if (closing) {
+			return;
+		}
+		outbound.add(ByteBuffer.wrap(bytes));
+		if (key != null && loop.inLoop()) {
+			write();
+		} else {
+			loop.requestWrite(this);
+		}
+	}
+
+	/**
+     * Registers the channel with the loop's selector. Called on the loop.
+     *
+     * @param selector 	the selector of the loop
+     */
+	void register(Selector selector) {
+		try {
+			key = channel.register(selector, SelectionKey.OP_READ, this);
+			write();
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	/**
+     * Reads the available bytes and handles every complete line, or every
+     * complete frame once the server uses the binary protocol. Called on
+     * the loop.
+     *
+     * @param buffer 	the loop's shared read buffer
+     */
+	void read(ByteBuffer buffer) {
+		try {
+			buffer.clear();
+			if (channel.read(buffer) < 0) {
+				close(closing ? null : new IOException("Server closed the connection"));
+				return;
+			}
+			buffer.flip();
+			while (buffer.hasRemaining() && !closed) {
+				byte b = buffer.get();
+				if (binaryInput) {
+					readFrameByte(b);
+				} else if (b == '\n') {
+					int length = lineLength;
+					lineLength = 0;
+					args.reset(line, length);
+					COMMANDS.dispatch(this, args);
+				} else if (b != '\r') {
+					appendByte(b);
+				}
+			}
+		} catch (Exception e) {
+			close(e);
+		}
+	}
+
+	private void appendByte(byte b) throws IOException {
+		if (lineLength == line.length) {
+			if (line.length >= CommandLine.MAX_LENGTH) {
+				throw new IOException("Line too long from server");
+			}
+			line = Arrays.copyOf(line, line.length * 2);
+		}
+		line[lineLength++] = b;
+	}
+
+	private void readFrameByte(byte b) throws IOException {
+		if (headerBytes < 2) {
+			frameLength = (frameLength << 8) | (b & 0xff);
+			if (++headerBytes == 2 && (frameLength == 0 || frameLength > BinaryProtocol.MAX_FRAME_LENGTH)) {
+				throw new IOException("Invalid frame length " + frameLength);
+			}
+			return;
+		}
+		line[lineLength++] = b;
+		if (lineLength == frameLength) {
+			int length = frameLength;
+			lineLength = 0;
+			frameLength = 0;
+			headerBytes = 0;
+			handleFrame(line, length);
+		}
+	}
+
+	/**
+     * Decodes a binary protocol frame into a game event. A frame whose
+     * length does not match its opcode is dropped.
+     *
+     * @param frame 	the frame received from the server, without its length prefix
+     * @param length 	the number of bytes of the frame
+     */
+	private void handleFrame(byte[] frame, int length) {
+		if (!BinaryProtocol.isValidServerFrame(frame, length)) {
+			return;
+		}
+		switch (frame[0]) {
+		case BinaryProtocol.BOARD:
+			onBoard(frame[1], frame[2], frame[3]);
+			break;
+		case BinaryProtocol.P1_JOINED:
+			onP1Joined();
+			break;
+		case BinaryProtocol.P2_JOINED:
+			onP2Joined();
+			break;
+		case BinaryProtocol.MOVE:
+			int cell = ((frame[2] & 0xff) << 8) | (frame[3] & 0xff);
+			onMove(BinaryProtocol.decodePlayer(frame[1]), BinaryProtocol.cellRow(cell), BinaryProtocol.cellCol(cell));
+			break;
+		case BinaryProtocol.EXIT:
+			onExit(BinaryProtocol.decodePlayer(frame[1]));
+			break;
+		case BinaryProtocol.RESTART:
+			onRestart(BinaryProtocol.decodePlayer(frame[1]));
+			break;
+		case BinaryProtocol.START_NEW_GAME:
+			onStartNewGame();
+			break;
+		case BinaryProtocol.RESULT:
+			onResult(frame[1] == BinaryProtocol.RESULT_DRAW ? "draw" : BinaryProtocol.decodePlayer(frame[1]));
+			break;
+		case BinaryProtocol.HINT:
+			int hinted = ((frame[1] & 0xff) << 8) | (frame[2] & 0xff);
+			onHint(BinaryProtocol.cellRow(hinted), BinaryProtocol.cellCol(hinted), frame[3]);
+			break;
+		case BinaryProtocol.SESSION:
+			onSession(BinaryProtocol.sessionToken(frame), BinaryProtocol.sessionSequence(frame));
+			break;
+		case BinaryProtocol.LEADER:
+			onLeader(frame[1] & 0xff, new String(frame, 14, length - 14, StandardCharsets.US_ASCII),
+					BinaryProtocol.readInt(frame, 2), BinaryProtocol.readInt(frame, 6), BinaryProtocol.readInt(frame, 10));
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+     * Writes as much queued output as the channel accepts, and waits for the
+     * channel to become writable again if some output is left. Called on
+     * the loop.
+     */
+	void write() {
+		if (closing) {
+			close(null);
+			return;
+		}
+		if (key == null || closed) {
+			return;
+		}
+		try {
+			ByteBuffer buffer;
+			while ((buffer = outbound.peek()) != null) {
+				channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+				outbound.poll();
+			}
+			key.interestOps(SelectionKey.OP_READ);
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	/**
+     * Closes the connection without leaving the room first. The listeners
+     * are told on the loop.
+     */
+	public void close() {
+		if (loop.inLoop()) {
+			close(null);
+		} else {
+			closing = true;
+			loop.requestWrite(this);
+		}
+	}
+
+	private void close(Exception error) {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		closing = true;
+		handshake.countDown();
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// the channel is unusable either way
+		}
+		for (GameListener listener : listeners) {
+			listener.onClosed(error);
+		}
+	}
+
+	private void onProtocol(CommandLine args) {
+		if (args.nextIs("binary") && args.nextInt() == BinaryProtocol.VERSION && handshake.getCount() > 0) {
+			binary = true;
+			binaryInput = true;
+		}
+		handshake.countDown();
+	}
+
+	private void onBoard(int boardWidth, int boardHeight, int boardWinLength) {
+		if (boardWidth != board.getWidth() || boardHeight != board.getHeight() || boardWinLength != board.getWinLength()) {
+			board = GameBoard.create(boardWidth, boardHeight, boardWinLength);
+		} else {
+			board.resetBoard();
+		}
+		player = null;
+		restarts = 0;
+		for (GameListener listener : listeners) {
+			listener.onBoard(boardWidth, boardHeight, boardWinLength);
+		}
+	}
+
+	private void onP1Joined() {
+		player = "X";
+		for (GameListener listener : listeners) {
+			listener.onJoined(player);
+		}
+	}
+
+	private void onP2Joined() {
+		sequence++;
+		if (player == null) {
+			player = "O";
+			for (GameListener listener : listeners) {
+				listener.onJoined(player);
+			}
+		} else {
+			for (GameListener listener : listeners) {
+				listener.onOpponentJoined();
+			}
+		}
+	}
+
+	private void onMove(String playerMoved, int row, int col) {
+		sequence++;
+		board.updateBoard(playerMoved, row, col);
+		for (GameListener listener : listeners) {
+			listener.onMoved(playerMoved, row, col);
+		}
+	}
+
+	private void onResult(String result) {
+		sequence++;
+		for (GameListener listener : listeners) {
+			listener.onResult(result);
+		}
+	}
+
+	private void onHint(int row, int col, int score) {
+		for (GameListener listener : listeners) {
+			listener.onHint(row, col, score);
+		}
+	}
+
+	private void onLeader(int rank, String name, long wins, long losses, long draws) {
+		for (GameListener listener : listeners) {
+			listener.onLeader(rank, name, wins, losses, draws);
+		}
+	}
+
+	/**
+     * Stores the session token and the sequence number of the room's last
+     * event, from which the client counts the events that follow. A token
+     * of 0 means the session could not be resumed, and the client is no
+     * longer seated.
+     */
+	private void onSession(long token, int lastSequence) {
+		sessionToken = token;
+		sequence = lastSequence;
+		if (token == 0) {
+			player = null;
+		}
+		for (GameListener listener : listeners) {
+			listener.onSession(token);
+		}
+	}
+
+	/**
+     * Counts the requests for a new game. Once both players have asked, the
+     * first player tells the server to start it, so it is started once.
+     */
+	private void onRestart(String playerName) {
+		sequence++;
+		for (GameListener listener : listeners) {
+			listener.onRestartRequested(playerName);
+		}
+		if (++restarts == 2 && "X".equals(player)) {
+			ready();
+		}
+	}
+
+	private void onStartNewGame() {
+		sequence++;
+		board.resetBoard();
+		restarts = 0;
+		for (GameListener listener : listeners) {
+			listener.onNewGame();
+		}
+	}
+
+	private void onExit(String playerName) {
+		sequence++;
+		if (playerName.equals(player)) {
+			close(null);
+		} else {
+			for (GameListener listener : listeners) {
+				listener.onOpponentLeft();
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * The GameListener interface receives the events of a GameClient. Every
+ * method does nothing by default, so a subscriber only overrides the events
+ * it needs.
+ *
+ * Events are raised on the I/O thread of the client's ClientLoop, which is
+ * shared by many clients, so listeners must return quickly and must not
+ * block; a user interface should hand the event over to its own thread.
+ */
+public interface GameListener {
+
+	/**
+     * Called when the client has been seated in a room, with the size of
+     * the room's board.
+     *
+     * @param width 		the number of columns
+     * @param height 		the number of rows
+     * @param winLength 	the number of marks in a row needed to win
+     */
+	default void onBoard(int width, int height, int winLength) {
+	}
+
+	/**
+     * Called when the client knows which player it is.
+     *
+     * @param player 	the player of this client (either X or O)
+     */
+	default void onJoined(String player) {
+	}
+
+	/**
+     * Called on the first player when the second player has joined, i.e.
+     * when the first game starts.
+     */
+	default void onOpponentJoined() {
+	}
+
+	/**
+     * Called when a player has moved, after the client's board was updated.
+     *
+     * @param player 	the player who moved (either X or O)
+     * @param row 		the row index of the move
+     * @param col 		the column index of the move
+     */
+	default void onMoved(String player, int row, int col) {
+	}
+
+	/**
+     * Called when a game has ended.
+     *
+     * @param result 	"X" or "O" for the winner, or "draw"
+     */
+	default void onResult(String result) {
+	}
+
+	/**
+     * Called when the server has answered a request for a hint.
+     *
+     * @param row 		the row index of the suggested move
+     * @param col 		the column index of the suggested move
+     * @param score 	the expected score for the player to move, from 0 for
+     *                  a loss to 100 for a win
+     */
+	default void onHint(int row, int col, int score) {
+	}
+
+	/**
+     * Called for each entry of the leaderboard the client asked for, best
+     * player first.
+     *
+     * @param rank 		the rank of the player, from 1
+     * @param name 		the name of the player
+     * @param wins 		the wins of the player
+     * @param losses 	the losses of the player
+     * @param draws 	the draws of the player
+     */
+	default void onLeader(int rank, String name, long wins, long losses, long draws) {
+	}
+
+	/**
+     * Called when the server has sent the client its session token, on
+     * joining a room or on resuming a session.
+     *
+     * @param token 	the session token, or 0 if the session could not be
+     *                  resumed and the client has to join a new game
+     */
+	default void onSession(long token) {
+	}
+
+	/**
+     * Called when a player has asked for a new game.
+     *
+     * @param player 	the player asking (either X or O)
+     */
+	default void onRestartRequested(String player) {
+	}
+
+	/**
+     * Called when a new game has started on a cleared board.
+     */
+	default void onNewGame() {
+	}
+
+	/**
+     * Called when the opponent has left the room.
+     */
+	default void onOpponentLeft() {
+	}
+
+	/**
+     * Called once when the connection is closed.
+     *
+     * @param error 	the error that closed the connection, or null if the
+     *                  client closed it itself, e.g. after leaving
+     */
+	default void onClosed(Exception error) {
+	}
+}
@@ -0,0 +1,519 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The GameRoom class represents a single match hosted by the server.
+ * Each room owns its own board and the connections of the (at most two)
+ * players seated in it, so that game events are only broadcast to the
+ * players of that room.
+ *
+ * A room is an actor: commands for it are queued in its mailbox with
+ * execute() and run one at a time, in arrival order, on a shared executor.
+ * The board is only ever touched by the room's commands, so it needs no
+ * locks, and two moves racing for the same cell are resolved by whichever
+ * reached the mailbox first. Messages broadcast by a batch of commands are
+ * flushed to the players once the batch is done, so they are coalesced
+ * into as few socket writes as possible.
+ *
+ * A room can also be watched by any number of read-only spectators. Their
+ * copy of every message is the same pre-encoded Message the players get,
+ * but it is handed to them on a separate, lower-priority executor after the
+ * players have been flushed, in batches that keep the room's order. So the
+ * number of spectators never delays the players.
+ *
+ * Every message a room broadcasts is numbered with the room's sequence
+ * number, and the last HISTORY of them are kept, so that a player who lost
+ * the connection can be sent only the events it missed. The game events
+ * are also recorded in the server's Journal, from which a room can be
+ * restored after a restart, and the results of its named players are
+ * counted in the server's PlayerStats.
+ */
+public class GameRoom {
+	public static final int CAPACITY = 2;
+	public static final int HISTORY = 64;
+	private static final int MAILBOX_BATCH = 64;
+
+	private final int id;
+	private final GameBoard board;
+	private final CopyOnWriteArrayList<ClientConnection> players = new CopyOnWriteArrayList<>();
+	private final Executor executor;
+	private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final long[] movesReceived = new long[MAILBOX_BATCH];
+	private int movesInBatch;
+	private final Executor spectatorExecutor;
+	private final Queue<Runnable> spectatorMailbox = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean spectatorsScheduled = new AtomicBoolean();
+	private final List<ClientConnection> spectators = new ArrayList<>();
+	private final List<Message> spectatorEvents = new ArrayList<>();
+	private int spectatorCount;
+	private final Journal journal;
+	private final PlayerStats stats;
+	private final String[] playerNames = new String[CAPACITY];
+	private final long[] seatTokens = new long[CAPACITY];
+	private final int[] playedCells;
+	private int sequence;
+	private final Message[] history = new Message[HISTORY];
+	private int historyStart;
+	private volatile boolean closed;
+
+	/**
+     * Constructs an empty GameRoom with the specified id and board size.
+     *
+     * @param id 			the id of the room in the registry
+     * @param width 		the number of columns of the board
+     * @param height 		the number of rows of the board
+     * @param winLength 	the number of marks in a row needed to win
+     * @param executor 		the executor running the room's commands
+     */
+	public GameRoom(int id, int width, int height, int winLength, Executor executor) {
+		this(id, width, height, winLength, executor, executor, Journal.DISABLED, PlayerStats.DISABLED);
+	}
+
+	/**
+     * Constructs an empty GameRoom that serves its spectators on a separate
+     * executor, records its events in a journal and counts its results in
+     * the player statistics.
+     *
+     * @param id 					the id of the room in the registry
+     * @param width 				the number of columns of the board
+     * @param height 				the number of rows of the board
+     * @param winLength 			the number of marks in a row needed to win
+     * @param executor 				the executor running the room's commands
+     * @param spectatorExecutor 	the executor sending the room's messages to
+     *                              its spectators
+     * @param journal 				the journal recording the room's events
+     * @param stats 				the statistics counting the room's results
+     */
+	public GameRoom(int id, int width, int height, int winLength, Executor executor, Executor spectatorExecutor,
+			Journal journal, PlayerStats stats) {
+		this.id = id;
+		this.board = GameBoard.create(width, height, winLength);
+		this.playedCells = new int[width * height];
+		this.executor = executor;
+		this.spectatorExecutor = spectatorExecutor;
+		this.journal = journal;
+		this.stats = stats;
+	}
+
+	/**
+     * Queues a command to run on this room. Commands of the same room never
+     * run concurrently and run in the order they were queued.
+     *
+     * @param command 	the command to run
+     */
+	public void execute(Runnable command) {
+		mailbox.add(command);
+		schedule();
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(this::drain);
+		}
+	}
+
+	/**
+     * Runs a batch of queued commands, then yields the executor thread to
+     * other rooms if more commands are waiting.
+     */
+	private void drain() {
+		try {
+			Runnable command;
+			for (int i = 0; i < MAILBOX_BATCH && (command = mailbox.poll()) != null; i++) {
+				try {
+					command.run();
+				} catch (RuntimeException e) {
+					Log.warn("Room {}: {}", id, e.getMessage());
+				}
+			}
+		} finally {
+			for (ClientConnection connection : players) {
+				connection.flush();
+			}
+			for (int i = 0; i < movesInBatch; i++) {
+				ServerMetrics.moveProcessed(movesReceived[i]);
+			}
+			movesInBatch = 0;
+			flushSpectatorEvents();
+			scheduled.set(false);
+			if (!mailbox.isEmpty()) {
+				schedule();
+			}
+		}
+	}
+
+	/**
+     * Notes a move a client made in the current batch, so that its latency
+     * is recorded once its broadcast has been flushed to the players. Runs
+     * on the room.
+     *
+     * @param receivedNanos 	the System.nanoTime() at which the move was received
+     */
+	void moveApplied(long receivedNanos) {
+		if (movesInBatch < movesReceived.length) {
+			movesReceived[movesInBatch++] = receivedNanos;
+		} else {
+			ServerMetrics.moveProcessed(receivedNanos);
+		}
+	}
+
+	/**
+     * Hands the messages broadcast so far to the spectator path. Runs on
+     * the room.
+     */
+	private void flushSpectatorEvents() {
+		if (!spectatorEvents.isEmpty()) {
+			Message[] events = spectatorEvents.toArray(new Message[0]);
+			spectatorEvents.clear();
+			executeForSpectators(() -> sendToSpectators(events));
+		}
+	}
+
+	/**
+     * Queues a task on the spectator path of this room. Tasks run one at a
+     * time, in the order they were queued.
+     */
+	private void executeForSpectators(Runnable task) {
+		spectatorMailbox.add(task);
+		if (spectatorsScheduled.compareAndSet(false, true)) {
+			spectatorExecutor.execute(this::drainSpectators);
+		}
+	}
+
+	private void drainSpectators() {
+		try {
+			Runnable task;
+			for (int i = 0; i < MAILBOX_BATCH && (task = spectatorMailbox.poll()) != null; i++) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					Log.warn("Room {} spectators: {}", id, e.getMessage());
+				}
+			}
+		} finally {
+			spectatorsScheduled.set(false);
+			if (!spectatorMailbox.isEmpty() && spectatorsScheduled.compareAndSet(false, true)) {
+				spectatorExecutor.execute(this::drainSpectators);
+			}
+		}
+	}
+
+	/**
+     * Writes a batch of the room's messages to every spectator. Runs on the
+     * spectator path.
+     */
+	private void sendToSpectators(Message[] events) {
+		for (ClientConnection spectator : spectators) {
+			for (Message event : events) {
+				spectator.send(event);
+			}
+			spectator.flush();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Room " + id;
+	}
+
+	/**
+     * Returns the id of this room.
+     *
+     * @return the room id
+     */
+	public int getId() {
+		return id;
+	}
+
+	/**
+     * Returns the board of this room. The board may only be used from
+     * commands running on this room.
+     *
+     * @return the room's board
+     */
+	public GameBoard getBoard() {
+		return board;
+	}
+
+	/**
+     * Returns the messages that bring a client up to date with this room:
+     * the board size, the moves made so far in the order they were played,
+     * and the result of the game if it is over. Runs on the room.
+     *
+     * @return the messages, in the order to send them
+     */
+	List<Message> snapshot() {
+		List<Message> messages = new ArrayList<>();
+		messages.add(Message.board(board.getWidth(), board.getHeight(), board.getWinLength()));
+		if (board.getMoveCount() > 0) {
+			String result = board.checkWin();
+			int width = board.getWidth();
+			for (int i = 0; i < board.getMoveCount(); i++) {
+				int cell = playedCells[i];
+				messages.add(Message.move(i % 2 == 0 ? "X" : "O", cell / width, cell % width));
+			}
+			if (result.equals("X")) {
+				messages.add(Message.RESULT_X);
+			} else if (result.equals("O")) {
+				messages.add(Message.RESULT_O);
+			} else if (result.equals("DRAW")) {
+				messages.add(Message.RESULT_DRAW);
+			}
+		}
+		return messages;
+	}
+
+	/**
+     * Subscribes a connection to this room as a spectator. It is sent the
+     * current state of the room, then every message the room broadcasts
+     * from now on; messages already broadcast are handed to the other
+     * spectators first, since the state includes them. Runs on the room.
+     *
+     * @param connection 	the connection of the spectator
+     */
+	void addSpectator(ClientConnection connection) {
+		List<Message> state = snapshot();
+		flushSpectatorEvents();
+		spectatorCount++;
+		ServerMetrics.spectatorAdded();
+		executeForSpectators(() -> {
+			for (Message message : state) {
+				connection.send(message);
+			}
+			connection.flush();
+			spectators.add(connection);
+		});
+	}
+
+	/**
+     * Unsubscribes a spectator from this room. Runs on the room.
+     *
+     * @param connection 	the connection of the spectator
+     */
+	void removeSpectator(ClientConnection connection) {
+		spectatorCount--;
+		ServerMetrics.spectatorRemoved();
+		executeForSpectators(() -> spectators.remove(connection));
+	}
+
+	/**
+     * Returns the sequence number of the last message this room has
+     * broadcast. Runs on the room.
+     *
+     * @return the sequence number, 0 before the first message
+     */
+	int getSequence() {
+		return sequence;
+	}
+
+	/**
+     * Returns the messages this room has broadcast after the specified one.
+     * Runs on the room.
+     *
+     * @param lastSequence 	the sequence number of the last message the
+     *                      client has seen
+     * @return the missed messages, in order, or null if they are no longer
+     *         kept and the client needs a snapshot instead
+     */
+	List<Message> eventsAfter(int lastSequence) {
+		if (lastSequence > sequence || lastSequence < historyStart || sequence - lastSequence > HISTORY) {
+			return null;
+		}
+		List<Message> events = new ArrayList<>(sequence - lastSequence);
+		for (int seq = lastSequence + 1; seq <= sequence; seq++) {
+			events.add(history[seq & (HISTORY - 1)]);
+		}
+		return events;
+	}
+
+	/**
+     * Records the start of a game on the empty board, and the session tokens
+     * of the room's seated players. Runs on the room.
+     */
+	void recordStart() {
+		journal.start(id, sequence, board.getWidth(), board.getHeight(), board.getWinLength());
+		for (int i = 0; i < CAPACITY; i++) {
+			if (seatTokens[i] != 0) {
+				journal.seat(id, sequence, i == 0 ? "X" : "O", seatTokens[i]);
+			}
+		}
+	}
+
+	/**
+     * Records the session token of a player who has just been seated, so
+     * that the player can resume the game after a restart. Runs on the room.
+     *
+     * @param player 	the seat of the player (either X or O)
+     * @param token 	the session token of the player
+     */
+	void recordSeat(String player, long token) {
+		seatTokens[player.equals("X") ? 0 : 1] = token;
+		journal.seat(id, sequence, player, token);
+	}
+
+	/**
+     * Records a move that has just been made on the board, and the end of
+     * the game if the move decided it. Runs on the room.
+     *
+     * @param player 	the player who moved (either X or O)
+     * @param row 		the row index of the move
+     * @param col 		the column index of the move
+     */
+	void recordMove(String player, int row, int col) {
+		int cell = row * board.getWidth() + col;
+		playedCells[board.getMoveCount() - 1] = cell;
+		journal.move(id, sequence, player, cell);
+		if (!board.checkWin().equals("continue")) {
+			journal.finish(id);
+		}
+	}
+
+	/**
+     * Counts the result of the game that has just ended for the players of
+     * this room. Runs on the room.
+     *
+     * @param result 	"X" or "O" for the winner, or "DRAW"
+     */
+	void recordResult(String result) {
+		stats.recordResult(playerNames[0], playerNames[1], result);
+	}
+
+	/**
+     * Sets the name under which the results of a player of this room are
+     * counted. Runs on the room.
+     *
+     * @param player 	the player (either X or O)
+     * @param name 		the name of the player, or null for an anonymous player
+     */
+	void setPlayerName(String player, String name) {
+		playerNames[player.equals("X") ? 0 : 1] = name;
+	}
+
+	/**
+     * Records that this room has been discarded. Runs on the room.
+     */
+	void recordEnd() {
+		journal.end(id, sequence);
+	}
+
+	/**
+     * Makes the moves of a game recovered from the journal on this room's
+     * empty board, and continues the room's sequence numbers after it.
+     * Must be called before the room is used.
+     *
+     * @param game 	the recovered game of this room
+     */
+	void restore(Journal.RecoveredGame game) {
+		game.replay(board);
+		int[] cells = game.getCells();
+		System.arraycopy(cells, 0, playedCells, 0, cells.length);
+		sequence = game.getSequence();
+		historyStart = sequence;
+		seatTokens[0] = game.getToken("X");
+		seatTokens[1] = game.getToken("O");
+	}
+
+	/**
+     * Seats a player in this room.
+     *
+     * @param connection 	the connection of the joining player
+     * @return the number of players seated after joining
+     */
+	int addPlayer(ClientConnection connection) {
+		players.add(connection);
+		return players.size();
+	}
+
+	/**
+     * Hands a player's seat over to a new connection of the same player,
+     * e.g. after the player has reconnected.
+     *
+     * @param previous 		the connection the player had
+     * @param connection 	the new connection of the player
+     */
+	void replacePlayer(ClientConnection previous, ClientConnection connection) {
+		int index = players.indexOf(previous);
+		if (index >= 0) {
+			players.set(index, connection);
+		}
+	}
+
+	/**
+     * Removes a player from this room.
+     *
+     * @param connection 	the connection of the leaving player
+     * @return the number of players still seated
+     */
+	int removePlayer(ClientConnection connection) {
+		players.remove(connection);
+		return players.size();
+	}
+
+	/**
+     * Returns the number of players seated in this room.
+     *
+     * @return the number of players
+     */
+	public int getPlayerCount() {
+		return players.size();
+	}
+
+	/**
+     * Returns the seat of a player in this room, where the first player
+     * to join sits in seat 1.
+     *
+     * @param connection 	the connection of the player
+     * @return the seat number, or 0 if the player is not in this room
+     */
+	public int getSeat(ClientConnection connection) {
+		return players.indexOf(connection) + 1;
+	}
+
+	/**
+     * Checks if this room is waiting for another player.
+     *
+     * @return true if a seat is still free, false otherwise
+     */
+	public boolean isOpen() {
+		return players.size() < CAPACITY;
+	}
+
+	/**
+     * Marks this room as closed, i.e. its game has been abandoned.
+     */
+	void markClosed() {
+		closed = true;
+	}
+
+	/**
+     * Checks if this room has been closed.
+     *
+     * @return true if a player has left the game for good, false otherwise
+     */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+     * Sends a message to every player seated in this room, queues it for
+     * its spectators and numbers it with the room's next sequence number.
+     * Runs on the room.
+     *
+     * @param message 	the message to send
+     */
+	public void broadcast(Message message) {
+		history[++sequence & (HISTORY - 1)] = message;
+		for (ClientConnection connection : players) {
+			connection.send(message);
+		}
+		if (spectatorCount > 0) {
+			spectatorEvents.add(message);
+		}
+	}
+}
@@ -0,0 +1,564 @@
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The GameSession class holds the game state of one connected client and
+ * applies the commands it sends. It is shared by every server transport,
+ * which only has to frame incoming lines and pass them to handle().
+ *
+ * A client may send "size width height winLength" before "name" to play on
+ * a larger board; otherwise it is paired for the classic 3x3 game. On
+ * joining, the client is told the size of its room with "board width
+ * height winLength".
+ *
+ * A client may give a name with "name playerName"; the results of named
+ * players are counted across games, and "top" answers the leaderboard of
+ * the players with the most wins as one "top rank name wins losses draws"
+ * line per player.
+ *
+ * A client may ask for a hint with "hint" at any time during a game, and
+ * is answered "hint row col score", where score is the expected score of
+ * the position for the player to move, from 0 to 100.
+ *
+ * Instead of playing, a client may watch a room with "spectate roomId". It
+ * is sent the room's board and moves so far, then every message of the
+ * room, and its other commands have no effect until it joins a game.
+ *
+ * Once seated, a client is sent "session token sequence": a token for its
+ * session and the sequence number of the last event of its room, which it
+ * keeps up to date by counting the room's events. If its connection drops,
+ * the client's seat is kept for a grace period, during which it can send
+ * "resume token sequence" on a new connection. It is then sent the events
+ * it missed, or the state of the room if it missed too many, followed by
+ * a new session line; a session line with token 0 means the session could
+ * not be resumed. A seat that is not resumed in time is given up as if the
+ * player had exited.
+ *
+ * Commands arrive either as text lines through handle() or, once the
+ * client has switched to the binary protocol, as frames through
+ * handleFrame(). Both decode into the same command methods without
+ * allocating: lines are routed on their first token by a CommandDispatcher
+ * and parsed in place from the transport's read buffer.
+ */
+public class GameSession {
+	private static final CommandDispatcher<GameSession> COMMANDS = new CommandDispatcher<GameSession>()
+			.register("protocol", (session, args) -> session.protocol(args))
+			.register("size", (session, args) -> session.size(args.nextInt(), args.nextInt(), args.nextInt()))
+			.register("name", (session, args) -> session.name(args.hasNext() ? args.nextToken() : null))
+			.register("move", (session, args) -> session.move(args.nextToken(), args.nextInt(), args.nextInt()))
+			.register("exit", (session, args) -> session.exit(args.nextToken()))
+			.register("restart", (session, args) -> session.restart(args.nextToken()))
+			.register("ready", (session, args) -> session.ready())
+			.register("hint", (session, args) -> session.hint())
+			.register("top", (session, args) -> session.top())
+			.register("spectate", (session, args) -> session.spectate(args.nextInt()))
+			.register("resume", (session, args) -> session.resume(args.nextHexLong(), args.nextInt()));
+
+	private final RoomRegistry rooms;
+	private final ClientConnection connection;
+	private volatile GameRoom room;
+	private GameRoom watched;
+	private Matchmaker.Ticket ticket;
+	private long token;
+	private volatile String player;
+	private boolean detached;
+	private boolean disconnected;
+	private int width = ServerBoard.SIZE;
+	private int height = ServerBoard.SIZE;
+	private int winLength = ServerBoard.SIZE;
+	private final CommandLine args = new CommandLine();
+
+	/**
+     * Constructs a GameSession for the specified client.
+     *
+     * @param rooms 		the registry used to pair the client into a room
+     * @param connection 	the connection of the client
+     */
+	public GameSession(RoomRegistry rooms, ClientConnection connection) {
+		this.rooms = rooms;
+		this.connection = connection;
+	}
+
+	/**
+     * Processes a single command line received from the client.
+     *
+     * @param line 		the buffer holding the line
+     * @param length 	the number of bytes of the line, without its terminator
+     */
+	public void handle(byte[] line, int length) {
+		args.reset(line, length);
+		if (Log.isDebugEnabled()) {
+			Log.debug("Server Received: {}", args.toString());
+		}
+
+		if (!COMMANDS.dispatch(this, args)) {
+			Log.warn("Unknown command: {}", args.toString());
+		}
+	}
+
+	/**
+     * Answers the client's offer to switch to another protocol.
+     *
+     * @param args 	the rest of the protocol line
+     */
+	private void protocol(CommandLine args) {
+		if (args.nextIs("binary") && args.nextInt() == BinaryProtocol.VERSION) {
+			connection.send(Message.BINARY_ACCEPTED);
+			connection.switchToBinary();
+		} else {
+			connection.send(Message.PROTOCOL_TEXT);
+		}
+		connection.flush();
+	}
+
+	/**
+     * Processes a single binary frame received from the client. A frame
+     * whose length does not match its opcode is dropped.
+     *
+     * @param frame 	the buffer holding the frame, without its length prefix
+     * @param length 	the number of bytes of the frame
+     */
+	public void handleFrame(byte[] frame, int length) {
+		if (!BinaryProtocol.isValidClientFrame(frame, length)) {
+			Log.warn("Dropping malformed frame with opcode {} and length {}", frame[0], length);
+			return;
+		}
+		switch (frame[0]) {
+		case BinaryProtocol.SIZE:
+			size(frame[1], frame[2], frame[3]);
+			break;
+		case BinaryProtocol.NAME:
+			name(length > 1 ? new String(frame, 1, length - 1, StandardCharsets.UTF_8) : null);
+			break;
+		case BinaryProtocol.MOVE:
+			int cell = ((frame[2] & 0xff) << 8) | (frame[3] & 0xff);
+			move(BinaryProtocol.decodePlayer(frame[1]), BinaryProtocol.cellRow(cell), BinaryProtocol.cellCol(cell));
+			break;
+		case BinaryProtocol.EXIT:
+			exit(BinaryProtocol.decodePlayer(frame[1]));
+			break;
+		case BinaryProtocol.RESTART:
+			restart(BinaryProtocol.decodePlayer(frame[1]));
+			break;
+		case BinaryProtocol.READY:
+			ready();
+			break;
+		case BinaryProtocol.HINT:
+			hint();
+			break;
+		case BinaryProtocol.TOP:
+			top();
+			break;
+		case BinaryProtocol.SPECTATE:
+			spectate(((frame[1] & 0xff) << 24) | ((frame[2] & 0xff) << 16) | ((frame[3] & 0xff) << 8) | (frame[4] & 0xff));
+			break;
+		case BinaryProtocol.RESUME:
+			resume(BinaryProtocol.sessionToken(frame), BinaryProtocol.sessionSequence(frame));
+			break;
+		default:
+			Log.warn("Unknown opcode {}", frame[0]);
+		}
+	}
+
+	/**
+     * Sets the board size used for the next game this client joins.
+     *
+     * @param w 	the number of columns
+     * @param h 	the number of rows
+     * @param k 	the number of marks in a row needed to win
+     */
+	private void size(int w, int h, int k) {
+		if (GameBoard.isValidSize(w, h, k)) {
+			width = w;
+			height = h;
+			winLength = k;
+		}
+	}
+
+	/**
+     * Asks for this client to be paired into a room. The client is seated
+     * at once if a room is open, and otherwise once the matchmaker has
+     * paired it.
+     *
+     * @param playerName 	the name under which the client's results are
+     *                      counted, or null to play anonymously
+     */
+	private synchronized void name(String playerName) {
+		if (!leaveQueue()) {
+			return;
+		}
+		String countedName = PlayerStats.isValidName(playerName) ? playerName : null;
+		if (room != null) {
+			leaveRoom();
+		}
+		stopWatching();
+		ticket = rooms.join(connection, width, height, winLength, countedName,
+				(joined, seat) -> seated(joined, seat, countedName));
+	}
+
+	/**
+     * Takes this client out of the matchmaking queue.
+     *
+     * @return true unless the client has been paired and is being seated
+     */
+	private synchronized boolean leaveQueue() {
+		Matchmaker.Ticket queued = ticket;
+		if (queued != null && !queued.cancel() && room == null) {
+			return false;
+		}
+		ticket = null;
+		return true;
+	}
+
+	/**
+     * Announces that this client has been seated in a room and sends it its
+     * session token. A client that disconnected while it was being paired
+     * is treated as one whose connection dropped during the game.
+     *
+     * @param joined 		the room of the client
+     * @param seat 			the seat of the client in the room
+     * @param countedName 	the name under which the client's results are
+     *                      counted, or null
+     */
+	private synchronized void seated(GameRoom joined, int seat, String countedName) {
+		ticket = null;
+		room = joined;
+		long sessionToken = rooms.openSession(this);
+		token = sessionToken;
+		player = seat == 1 ? "X" : "O";
+		String joinedAs = player;
+		joined.execute(() -> {
+				joined.setPlayerName(joinedAs, countedName);
+				joined.recordSeat(joinedAs, sessionToken);
+				for (Message message : joined.snapshot()) {
+					connection.send(message);
+				}
+				if (seat == 1) {
+					connection.send(Message.P1_JOINED);
+					Log.debug("P1 joined {}", joined);
+				}
+				else if (seat == 2) {
+					joined.broadcast(Message.P2_JOINED);
+					Log.debug("P2 joined {}", joined);
+				}
+				connection.send(Message.session(sessionToken, joined.getSequence()));
+		});
+		if (disconnected) {
+			detached = true;
+			rooms.expireLater(this::expire);
+		}
+	}
+
+	/**
+     * Takes over the seat of a session whose connection dropped, or the
+     * seat the session had in a game restored from the journal after a
+     * restart, and sends this client the events it missed, or the state of
+     * the room if they are no longer kept. The previous connection is
+     * closed if it is still open.
+     *
+     * @param sessionToken 		the token of the session to resume
+     * @param lastSequence 		the sequence number of the last event the
+     *                          client has seen
+     */
+	private void resume(long sessionToken, int lastSequence) {
+		GameSession previous = rooms.getSession(sessionToken);
+		GameRoom resumed = null;
+		ClientConnection replaced = null;
+		String resumedAs = null;
+		if (room != null || ticket != null) {
+			previous = null;
+		} else if (previous == null) {
+			RoomRegistry.RestoredSeat seat = rooms.reclaimSeat(sessionToken, this, connection);
+			if (seat != null) {
+				resumed = seat.getRoom();
+				resumedAs = seat.getPlayer();
+			}
+		} else if (previous != this && rooms.resumeSession(sessionToken, previous, this)) {
+			replaced = previous.connection;
+			resumedAs = previous.player;
+			resumed = previous.handOver();
+			if (resumed == null) {
+				rooms.closeSession(sessionToken, this);
+			}
+		}
+		if (resumed == null) {
+			Log.debug("Session {} cannot be resumed", Long.toHexString(sessionToken));
+			connection.send(Message.SESSION_EXPIRED);
+			connection.flush();
+			return;
+		}
+
+		stopWatching();
+		ClientConnection previousConnection = replaced;
+		GameRoom current = resumed;
+		token = sessionToken;
+		player = resumedAs;
+		room = current;
+		boolean first = resumedAs.equals("X");
+		current.execute(() -> {
+			if (previousConnection != null) {
+				current.replacePlayer(previousConnection, connection);
+			}
+			List<Message> missed = current.eventsAfter(lastSequence);
+			if (missed == null) {
+				missed = current.snapshot();
+				int index = 1;
+				if (first) {
+					missed.add(index++, Message.P1_JOINED);
+				}
+				if (!first || current.getPlayerCount() == GameRoom.CAPACITY) {
+					missed.add(index, Message.P2_JOINED);
+				}
+			}
+			for (Message message : missed) {
+				connection.send(message);
+			}
+			connection.send(Message.session(sessionToken, current.getSequence()));
+			Log.debug("Session resumed in {} with {} messages", current, missed.size());
+		});
+		if (previousConnection != null) {
+			previousConnection.close();
+		}
+	}
+
+	/**
+     * Gives this session's seat up to a session resuming it.
+     *
+     * @return the room of the seat, or null if the seat is already gone
+     */
+	private synchronized GameRoom handOver() {
+		GameRoom current = room;
+		if (current == null || current.isClosed()) {
+			return null;
+		}
+		room = null;
+		token = 0;
+		detached = false;
+		return current;
+	}
+
+	/**
+     * Releases the seat of this session if it has not been resumed during
+     * the grace period, and tells the opponent that the player has left.
+     */
+	private synchronized void expire() {
+		GameRoom current = room;
+		if (!detached || current == null) {
+			return;
+		}
+		detached = false;
+		Log.debug("Session of {} in {} expired", player, current);
+		if (!current.isClosed()) {
+			rooms.close(current);
+			Message exit = Message.exit(player);
+			current.execute(() -> current.broadcast(exit));
+		}
+		leaveRoom();
+	}
+
+	/**
+     * Subscribes this client to a room as a spectator, leaving the room it
+     * plays or watches. Nothing is sent if there is no such room.
+     *
+     * @param roomId 	the id of the room to watch
+     */
+	private void spectate(int roomId) {
+		GameRoom target = rooms.getRoom(roomId);
+		if (target == null) {
+			Log.debug("No room {} to spectate", roomId);
+			return;
+		}
+		if (!leaveQueue()) {
+			return;
+		}
+		if (room != null) {
+			leaveRoom();
+		}
+		stopWatching();
+		watched = target;
+		target.execute(() -> target.addSpectator(connection));
+	}
+
+	private void stopWatching() {
+		GameRoom current = watched;
+		if (current != null) {
+			watched = null;
+			current.execute(() -> current.removeSpectator(connection));
+		}
+	}
+
+	/**
+     * Queues a move on this client's room. The move is made with the mark of
+     * the client's seat, X for seat 1 and O for seat 2, and is rejected if
+     * the client names the other player's mark.
+     *
+     * @param playerName 	the identifier of the player making the move
+     * @param row 			the row index of the move
+     * @param col 			the column index of the move
+     */
+	private void move(String playerName, int row, int col) {
+		Log.debug("Move {} {} {}", playerName, row, col);
+
+		GameRoom current = room;
+		String mark = player;
+		if (current != null && mark != null && mark.equals(playerName)) {
+			long received = System.nanoTime();
+			current.execute(() -> {
+				if (move(current, mark, row, col)) {
+					current.moveApplied(received);
+				}
+			});
+		}
+	}
+
+	/**
+     * Closes this client's room and tells its players that a player left.
+     *
+     * @param playerName 	the identifier of the leaving player
+     */
+	private void exit(String playerName) {
+		GameRoom current = room;
+		if (current != null) {
+			rooms.close(current);
+			Message exit = Message.exit(playerName);
+			current.execute(() -> current.broadcast(exit));
+		}
+	}
+
+	/**
+     * Tells the players of this client's room that a player wants a new game.
+     *
+     * @param playerName 	the identifier of the player
+     */
+	private void restart(String playerName) {
+		GameRoom current = room;
+		if (current != null) {
+			Message restart = Message.restart(playerName);
+			current.execute(() -> current.broadcast(restart));
+		}
+	}
+
+	/**
+     * Starts a new game in this client's room, once the current game has a
+     * result. A ready sent during a game is ignored, so a player cannot
+     * wipe a game it is losing before its result is counted.
+     */
+	private void ready() {
+		GameRoom current = room;
+		if (current != null) {
+			current.execute(() -> {
+				if (current.getBoard().checkWin().equals("continue")) {
+					Log.debug("Ignoring ready during a game in {}", current);
+					return;
+				}
+				current.getBoard().resetBoard();
+				current.broadcast(Message.START_NEW_GAME);
+				current.recordStart();
+			});
+		}
+	}
+
+	/**
+     * Sends this client the best move for the player to move in its room,
+     * and the expected score of the position for that player. Nothing is
+     * sent if the game is over.
+     */
+	private void hint() {
+		GameRoom current = room;
+		if (current != null) {
+			current.execute(() -> rooms.getHints().hint(current.getBoard()).thenAccept(hint -> {
+				if (hint != null) {
+					Message message = Message.hint(hint);
+					current.execute(() -> connection.send(message));
+				}
+			}));
+		}
+	}
+
+	/**
+     * Sends this client the leaderboard, best player first.
+     */
+	private void top() {
+		int rank = 0;
+		for (PlayerStats.Totals totals : rooms.getStats().getLeaderboard()) {
+			connection.send(Message.leader(++rank, totals.getName(), totals.getWins(), totals.getLosses(), totals.getDraws()));
+		}
+		connection.flush();
+	}
+
+	/**
+     * Applies a move to a room's board and announces it, unless the cell is
+     * outside the board or already taken, the game is over, or it is not
+     * the player's turn. Runs on the room, and is also used by BotPlayer.
+     *
+     * @param room 			the room the move is made in
+     * @param playerName 	the identifier of the player making the move
+     * @param row 			the row index of the move
+     * @param col 			the column index of the move
+     * @return true if the move was applied, false if it was rejected
+     */
+	static boolean move(GameRoom room, String playerName, int row, int col) {
+		GameBoard board = room.getBoard();
+		String turn = board.getMoveCount() % 2 == 0 ? "X" : "O";
+		if (row < 0 || row >= board.getHeight() || col < 0 || col >= board.getWidth()
+				|| board.getGrid(row, col) != null || !board.checkWin().equals("continue")
+				|| !turn.equals(playerName)) {
+			return false;
+		}
+
+		room.broadcast(Message.move(turn, row, col));
+		board.updateBoard(playerName, row, col);
+		room.recordMove(playerName, row, col);
+
+		String result = board.checkWin();
+		Log.debug("{}: {}", room, result);
+		if (!result.equals("continue")) {
+			ServerMetrics.gameResult(result);
+			room.recordResult(result);
+			if (result.equals("X")) {
+				room.broadcast(Message.RESULT_X);
+				Log.debug("result X");
+			} else if (result.equals("O")) {
+				room.broadcast(Message.RESULT_O);
+				Log.debug("result O");
+			} else if (result.equals("DRAW")) {
+				room.broadcast(Message.RESULT_DRAW);
+				Log.debug("result draw");
+			}
+		}
+		return true;
+	}
+
+	/**
+     * Releases the session after the client has disconnected. A player in
+     * a game that is still going on keeps its seat for the grace period, so
+     * that it can resume the session.
+     */
+	public synchronized void disconnect() {
+		disconnected = true;
+		stopWatching();
+		if (!leaveQueue()) {
+			return;
+		}
+		GameRoom current = room;
+		if (current == null) {
+			return;
+		}
+		if (token != 0 && RoomRegistry.RESUME_GRACE_MILLIS > 0 && !current.isClosed() && !current.isOpen()) {
+			detached = true;
+			rooms.expireLater(this::expire);
+		} else {
+			leaveRoom();
+		}
+	}
+
+	/**
+     * Removes this client from its current room and ends its session.
+     */
+	private void leaveRoom() {
+		rooms.closeSession(token, this);
+		token = 0;
+		rooms.leave(room, connection);
+		room = null;
+	}
+}
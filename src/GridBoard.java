@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**
+ * The GridBoard class is a board of any supported width and height where a
+ * player wins with a configurable number of marks in a row, e.g. 15x15 with
+ * five in a row. The cells of each side are bit-packed into longs, and a
+ * move only inspects the four lines through its own cell, so making a move
+ * and deciding the verdict takes O(winLength) regardless of the board size.
+ * Like ServerBoard, it is not thread-safe and is confined to its room.
+ */
+public class GridBoard implements GameBoard {
+	private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+	private final int width;
+	private final int height;
+	private final int winLength;
+	private final long[] xBits;
+	private final long[] oBits;
+	private int moveCount;
+	private String result;
+
+	/**
+     * Constructs an empty GridBoard.
+     *
+     * @param width 		the number of columns
+     * @param height 		the number of rows
+     * @param winLength 	the number of marks in a row needed to win
+     */
+	public GridBoard(int width, int height, int winLength) {
+		this.width = width;
+		this.height = height;
+		this.winLength = winLength;
+		int words = (width * height + 63) >>> 6;
+		this.xBits = new long[words];
+		this.oBits = new long[words];
+		resetBoard();
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getWinLength() {
+		return winLength;
+	}
+
+	/**
+     * Updates the board at the specified row and column with the player's
+     * identifier, and decides the verdict from the lines through that cell.
+     *
+     * @param player 	the identifier of the player making the move (either X or O)
+     * @param row 		the row index where the player is making a move
+     * @param col 		the column index where the player is making a move
+     */
+	@Override
+	public void updateBoard(String player, int row, int col) {
+		int cell = row * width + col;
+		if (isSet(xBits, cell) || isSet(oBits, cell)) {
+			return;
+		}
+
+		long[] bits;
+		if (player.equals("X")) {
+			bits = xBits;
+		} else if (player.equals("O")) {
+			bits = oBits;
+		} else {
+			return;
+		}
+		bits[cell >>> 6] |= 1L << cell;
+		moveCount++;
+
+		if (result.equals("continue")) {
+			for (int[] direction : DIRECTIONS) {
+				int run = 1 + countRun(bits, row, col, direction[0], direction[1])
+						+ countRun(bits, row, col, -direction[0], -direction[1]);
+				if (run >= winLength) {
+					result = player.equals("X") ? "X" : "O";
+					return;
+				}
+			}
+			if (isBoardFull()) {
+				result = "DRAW";
+			}
+		}
+	}
+
+	/**
+     * Counts the consecutive marks of one side starting next to a cell,
+     * stopping after winLength - 1 cells.
+     */
+	private int countRun(long[] bits, int row, int col, int dRow, int dCol) {
+		int count = 0;
+		int r = row + dRow;
+		int c = col + dCol;
+		while (count < winLength - 1 && r >= 0 && r < height && c >= 0 && c < width
+				&& isSet(bits, r * width + c)) {
+			count++;
+			r += dRow;
+			c += dCol;
+		}
+		return count;
+	}
+
+	private static boolean isSet(long[] bits, int cell) {
+		return (bits[cell >>> 6] & (1L << cell)) != 0;
+	}
+
+	@Override
+	public String getGrid(int row, int col) {
+		int cell = row * width + col;
+		if (isSet(xBits, cell)) {
+			return "X";
+		}
+		if (isSet(oBits, cell)) {
+			return "O";
+		}
+		return null;
+	}
+
+	@Override
+	public String checkWin() {
+		return result;
+	}
+
+	@Override
+	public boolean isBoardFull() {
+		return moveCount == width * height;
+	}
+
+	@Override
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	@Override
+	public void resetBoard() {
+		Arrays.fill(xBits, 0);
+		Arrays.fill(oBits, 0);
+		moveCount = 0;
+		result = "continue";
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * The Hint class is an immutable suggestion for the player to move: the
+ * best move found in a position and the expected score of the position
+ * for that player, from 0 (a sure loss) through 50 (a draw) to 100 (a sure
+ * win).
+ */
+public final class Hint {
+	private final int row;
+	private final int col;
+	private final int score;
+
+	/**
+     * Constructs a Hint.
+     *
+     * @param row 		the row index of the suggested move
+     * @param col 		the column index of the suggested move
+     * @param score 	the expected score for the player to move, from 0 to 100
+     */
+	public Hint(int row, int col, int score) {
+		this.row = row;
+		this.col = col;
+		this.score = score;
+	}
+
+	/**
+     * Returns the row index of the suggested move.
+     *
+     * @return the row index
+     */
+	public int getRow() {
+		return row;
+	}
+
+	/**
+     * Returns the column index of the suggested move.
+     *
+     * @return the column index
+     */
+	public int getCol() {
+		return col;
+	}
+
+	/**
+     * Returns the expected score of the position for the player to move.
+     *
+     * @return the score, from 0 for a loss to 100 for a win
+     */
+	public int getScore() {
+		return score;
+	}
+
+	@Override
+	public String toString() {
+		return row + " " + col + " " + score;
+	}
+}
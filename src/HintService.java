@@ -0,0 +1,168 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The HintService class suggests the best move in a position. On the
+ * classic 3x3 board, the hint is looked up in SolvedGame, which already
+ * holds the value and optimal moves of every canonical position. On larger
+ * boards it comes from a MonteCarloSearch, which is costly, so hints are
+ * kept in a cache.
+ *
+ * Positions that are rotations or reflections of each other get the same
+ * hint, mapped back to the orientation asked for, so the cache is keyed by
+ * the canonical position: the smallest encoding among the symmetries of the
+ * board (8 on a square board, 4 otherwise). A hint being searched is cached
+ * as soon as the search starts, so the same position asked for again meanwhile
+ * waits for that search instead of starting another. The cache holds at
+ * most CACHE_CAPACITY positions and evicts the least recently used one. Its
+ * hits and misses are counted in ServerMetrics.
+ *
+ * The capacity and the search time are read from the system properties
+ * "hint.cache" (default 10000) and "hint.think" (default 500 ms).
+ */
+public class HintService {
+	public static final int CACHE_CAPACITY = Integer.getInteger("hint.cache", 10_000);
+	public static final long THINK_MILLIS = Long.getLong("hint.think", 500);
+
+	private static final int THINK_PLAYOUTS = Integer.MAX_VALUE;
+
+	private final MonteCarloSearch search;
+	private final Map<String, CompletableFuture<Hint>> cache = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Hint>> eldest) {
+			return size() > CACHE_CAPACITY;
+		}
+	};
+
+	/**
+     * Constructs a HintService searching larger boards with the specified search.
+     *
+     * @param search 	the search used for boards other than 3x3
+     */
+	public HintService(MonteCarloSearch search) {
+		this.search = search;
+	}
+
+	/**
+     * Returns the hint for the player to move. Must be called by the owner
+     * of the board, e.g. on its room; the board is not used afterwards.
+     *
+     * @param board 	the position
+     * @return the hint, or null if the game is over
+     */
+	public CompletableFuture<Hint> hint(GameBoard board) {
+		if (!board.checkWin().equals("continue")) {
+			return CompletableFuture.completedFuture(null);
+		}
+		if (board instanceof ServerBoard) {
+			ServerBoard solved = (ServerBoard) board;
+			return CompletableFuture.completedFuture(solvedHint(solved.getXBits(), solved.getOBits()));
+		}
+
+		int width = board.getWidth();
+		int height = board.getHeight();
+		int symmetries = width == height ? 8 : 4;
+		char[] cells = new char[width * height];
+		char[] canonical = null;
+		int symmetry = 0;
+		for (int s = 0; s < symmetries; s++) {
+			for (int row = 0; row < height; row++) {
+				for (int col = 0; col < width; col++) {
+					String mark = board.getGrid(row, col);
+					cells[transform(s, row, col, width, height)] = mark == null ? '.' : mark.charAt(0);
+				}
+			}
+			if (canonical == null || compare(cells, canonical) < 0) {
+				canonical = cells.clone();
+				symmetry = s;
+			}
+		}
+		String key = width + " " + height + " " + board.getWinLength() + " " + new String(canonical);
+
+		int s = symmetry;
+		CompletableFuture<Hint> cached;
+		synchronized (cache) {
+			cached = cache.get(key);
+			if (cached == null) {
+				cached = search.analyze(board, THINK_MILLIS, THINK_PLAYOUTS)
+						.thenApply(hint -> map(hint, s, width, height, false));
+				cache.put(key, cached);
+				ServerMetrics.hintCacheMiss();
+			} else {
+				ServerMetrics.hintCacheHit();
+			}
+		}
+		return cached.thenApply(hint -> map(hint, s, width, height, true));
+	}
+
+	/**
+     * Returns the number of positions in the cache.
+     *
+     * @return the cache size
+     */
+	public int getCacheSize() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+     * Returns the hint of a 3x3 position from SolvedGame, picking one of
+     * the optimal moves at random.
+     */
+	private static Hint solvedHint(int xBits, int oBits) {
+		int cell = SolvedGame.chooseMove(xBits, oBits, 0, ThreadLocalRandom.current());
+		int value = SolvedGame.evaluate(xBits, oBits);
+		return new Hint(cell / ServerBoard.SIZE, cell % ServerBoard.SIZE, (value + 1) * 50);
+	}
+
+	/**
+     * Maps a hint between the orientation of a board and its canonical
+     * orientation.
+     *
+     * @param hint 			the hint to map
+     * @param symmetry 		the symmetry mapping the board onto its canonical form
+     * @param toBoard 		true to map from the canonical orientation back to
+     *                      the board, false for the other way around
+     */
+	private static Hint map(Hint hint, int symmetry, int width, int height, boolean toBoard) {
+		if (hint == null) {
+			return null;
+		}
+		if (!toBoard) {
+			int cell = transform(symmetry, hint.getRow(), hint.getCol(), width, height);
+			return new Hint(cell / width, cell % width, hint.getScore());
+		}
+		int target = hint.getRow() * width + hint.getCol();
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				if (transform(symmetry, row, col, width, height) == target) {
+					return new Hint(row, col, hint.getScore());
+				}
+			}
+		}
+		return hint;
+	}
+
+	/**
+     * Returns the cell that a cell is moved to by a symmetry of the board:
+     * bit 0 of the symmetry mirrors the columns, bit 1 the rows, and bit 2
+     * transposes the board, which is only a symmetry of square boards.
+     */
+	private static int transform(int symmetry, int row, int col, int width, int height) {
+		int r = (symmetry & 2) != 0 ? height - 1 - row : row;
+		int c = (symmetry & 1) != 0 ? width - 1 - col : col;
+		return (symmetry & 4) != 0 ? c * width + r : r * width + c;
+	}
+
+	private static int compare(char[] a, char[] b) {
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] != b[i]) {
+				return a[i] - b[i];
+			}
+		}
+		return 0;
+	}
+}
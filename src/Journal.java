@@ -0,0 +1,468 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * The Journal class is an append-only log of the games played on the
+ * server, from which the games in progress are rebuilt after a restart or
+ * a crash.
+ *
+ * Every event is a fixed-size record of RECORD_SIZE bytes: the room id, the
+ * room's sequence number of the event, a timestamp, the event type (START
+ * of a game, with the board size, a MOVE with its player and cell, the SEAT
+ * of a player, whose session token takes the place of the timestamp, or
+ * the END of the room) and a checksum. The seats are recorded again after
+ * every START, so the records of a game alone tell who may resume it. The records are written into segment
+ * files of SEGMENT_RECORDS records that are memory-mapped, so appending a
+ * record only reserves its slot with an atomic increment and copies 24
+ * bytes into memory, from any room concurrently. The checksum is written
+ * last, with release semantics, and so also publishes the record to the
+ * sync thread.
+ *
+ * The mapped pages belong to the operating system, so a record survives a
+ * crash of the server as soon as it is written. Against a crash of the
+ * machine, a sync thread forces the records completed since its last round
+ * to disk every SYNC_MILLIS, one group commit for every move made in the
+ * meantime, so a move never waits for the disk. A round stops at the first
+ * slot that is reserved but not yet written, which the next round forces
+ * once it is complete. A record torn by a crash fails its checksum and is
+ * skipped on replay.
+ *
+ * A game is live from its START until it is decided or its room ends.
+ * Older segments whose games are all over are deleted by the sync thread.
+ *
+ * The journal is kept in the directory given by the system property
+ * "journal.dir" (default "journal"; empty to disable it). The segment size
+ * and sync interval are read from "journal.segment" (default 65536 records)
+ * and "journal.sync" (default 2 ms).
+ */
+public class Journal implements Closeable {
+	public static final int RECORD_SIZE = 24;
+	public static final int SEGMENT_RECORDS = Integer.getInteger("journal.segment", 1 << 16);
+	public static final long SYNC_MILLIS = Long.getLong("journal.sync", 2);
+	public static final Journal DISABLED = new Journal();
+
+	static final byte START = 1;
+	static final byte MOVE = 2;
+	static final byte END = 3;
+	static final byte SEAT = 4;
+
+	private static final int MAGIC = 0x6a726e6c;
+	private static final String SUFFIX = ".journal";
+	private static final VarHandle CHECKSUM = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+	private final Path directory;
+	private final Map<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+	private final Map<Integer, Long> liveGames = new ConcurrentHashMap<>();
+	private final List<RecoveredGame> recovered = new ArrayList<>();
+	private final AtomicLong next = new AtomicLong();
+	private final ScheduledExecutorService syncer;
+	private long synced;
+	private long firstSegment;
+
+	private Journal() {
+		this.directory = null;
+		this.syncer = null;
+	}
+
+	private Journal(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+		replay();
+		this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "journal-sync");
+			thread.setDaemon(true);
+			return thread;
+		});
+		syncer.scheduleWithFixedDelay(this::sync, SYNC_MILLIS, SYNC_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+     * Opens the journal configured by the system property "journal.dir",
+     * replaying its segments. If the journal is disabled or cannot be
+     * opened, the server runs without one.
+     *
+     * @return the journal, or DISABLED
+     */
+	public static Journal open() {
+		String dir = System.getProperty("journal.dir", "journal");
+		if (dir.isEmpty()) {
+			return DISABLED;
+		}
+		try {
+			return new Journal(Path.of(dir));
+		} catch (IOException | UncheckedIOException e) {
+			Log.warn("Journal unavailable: {}", e.getMessage());
+			return DISABLED;
+		}
+	}
+
+	/**
+     * Returns the games that were in progress when the journal was last
+     * written, in the order they were started.
+     *
+     * @return the games to restore
+     */
+	public List<RecoveredGame> getRecoveredGames() {
+		return Collections.unmodifiableList(recovered);
+	}
+
+	/**
+     * Records the start of a game.
+     *
+     * @param roomId 		the id of the room
+     * @param sequence 		the room's sequence number of the event
+     * @param width 		the number of columns of the board
+     * @param height 		the number of rows of the board
+     * @param winLength 	the number of marks in a row needed to win
+     */
+	public void start(int roomId, int sequence, int width, int height, int winLength) {
+		if (directory != null) {
+			liveGames.put(roomId, next.get() / SEGMENT_RECORDS);
+			append(roomId, sequence, START, (byte) 0, (width << 10) | (height << 5) | winLength);
+		}
+	}
+
+	/**
+     * Records a move.
+     *
+     * @param roomId 		the id of the room
+     * @param sequence 		the room's sequence number of the event
+     * @param player 		the player who moved (either X or O)
+     * @param cell 			the cell of the move, as row * width + col
+     */
+	public void move(int roomId, int sequence, String player, int cell) {
+		if (directory != null) {
+			append(roomId, sequence, MOVE, BinaryProtocol.encodePlayer(player), cell);
+		}
+	}
+
+	/**
+     * Records the session token of a player seated in a room, with which the
+     * player can take its seat again after a restart.
+     *
+     * @param roomId 		the id of the room
+     * @param sequence 		the room's sequence number of the event
+     * @param player 		the seat of the player (either X or O)
+     * @param token 		the session token of the player
+     */
+	public void seat(int roomId, int sequence, String player, long token) {
+		if (directory != null) {
+			append(roomId, sequence, token, SEAT, BinaryProtocol.encodePlayer(player), 0);
+		}
+	}
+
+	/**
+     * Records that a room has been discarded.
+     *
+     * @param roomId 		the id of the room
+     * @param sequence 		the room's sequence number of the event
+     */
+	public void end(int roomId, int sequence) {
+		if (directory != null) {
+			append(roomId, sequence, END, (byte) 0, 0);
+			liveGames.remove(roomId);
+		}
+	}
+
+	/**
+     * Notes that the game of a room has been decided, so that its records
+     * are no longer needed to restore it.
+     *
+     * @param roomId 	the id of the room
+     */
+	public void finish(int roomId) {
+		liveGames.remove(roomId);
+	}
+
+	private void append(int roomId, int sequence, byte type, byte player, int value) {
+		append(roomId, sequence, System.currentTimeMillis(), type, player, value);
+	}
+
+	private void append(int roomId, int sequence, long timestamp, byte type, byte player, int value) {
+		long index = next.getAndIncrement();
+		MappedByteBuffer segment = segment(index / SEGMENT_RECORDS);
+		int offset = (int) (index % SEGMENT_RECORDS) * RECORD_SIZE;
+		segment.putInt(offset, roomId);
+		segment.putInt(offset + 4, sequence);
+		segment.putLong(offset + 8, timestamp);
+		segment.put(offset + 16, type);
+		segment.put(offset + 17, player);
+		segment.putShort(offset + 18, (short) value);
+		CHECKSUM.setRelease(segment, offset + 20, checksum(roomId, sequence, timestamp, type, player, (short) value));
+	}
+
+	/**
+     * Returns true if the record in a slot has been completely written,
+     * that is, its checksum has been published and matches its fields.
+     */
+	private boolean isWritten(long index) {
+		MappedByteBuffer segment = segment(index / SEGMENT_RECORDS);
+		int offset = (int) (index % SEGMENT_RECORDS) * RECORD_SIZE;
+		int checksum = (int) CHECKSUM.getAcquire(segment, offset + 20);
+		return checksum == checksum(segment.getInt(offset), segment.getInt(offset + 4), segment.getLong(offset + 8),
+				segment.get(offset + 16), segment.get(offset + 17), segment.getShort(offset + 18));
+	}
+
+	private static int checksum(int roomId, int sequence, long timestamp, byte type, byte player, short value) {
+		int hash = MAGIC;
+		hash = hash * 31 + roomId;
+		hash = hash * 31 + sequence;
+		hash = hash * 31 + Long.hashCode(timestamp);
+		hash = hash * 31 + ((type << 24) | ((player & 0xff) << 16) | (value & 0xffff));
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+     * Returns the mapping of a segment, creating its file if needed.
+     */
+	private MappedByteBuffer segment(long number) {
+		MappedByteBuffer segment = segments.get(number);
+		return segment != null ? segment : segments.computeIfAbsent(number, this::map);
+	}
+
+	private MappedByteBuffer map(long number) {
+		try (FileChannel channel = FileChannel.open(path(number),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) SEGMENT_RECORDS * RECORD_SIZE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Path path(long number) {
+		return directory.resolve(String.format("%012d%s", number, SUFFIX));
+	}
+
+	/**
+     * Forces the records completed since the last round to disk, up to the
+     * first one still being written, maps the next segment ahead of its
+     * first record, and deletes the segments that no live game needs. Runs
+     * on the sync thread.
+     */
+	private void sync() {
+		try {
+			long reserved = next.get();
+			long limit = synced;
+			while (limit < reserved && isWritten(limit)) {
+				limit++;
+			}
+			for (long index = synced; index < limit; ) {
+				long number = index / SEGMENT_RECORDS;
+				long end = Math.min(limit, (number + 1) * SEGMENT_RECORDS);
+				int from = (int) (index % SEGMENT_RECORDS) * RECORD_SIZE;
+				segment(number).force(from, (int) (end - index) * RECORD_SIZE);
+				index = end;
+			}
+			synced = limit;
+
+			long current = limit / SEGMENT_RECORDS;
+			segment(current + 1);
+			long needed = current;
+			for (long start : liveGames.values()) {
+				needed = Math.min(needed, start);
+			}
+			for (; firstSegment < needed; firstSegment++) {
+				segments.remove(firstSegment);
+				Files.deleteIfExists(path(firstSegment));
+			}
+		} catch (IOException | UncheckedIOException e) {
+			Log.warn("Journal sync failed: {}", e.getMessage());
+		}
+	}
+
+	/**
+     * Reads every segment in order, rebuilds the games still in progress,
+     * and positions the journal after the last valid record.
+     */
+	private void replay() throws IOException {
+		List<Long> numbers;
+		try (Stream<Path> files = Files.list(directory)) {
+			numbers = files.map(file -> file.getFileName().toString())
+					.filter(name -> name.endsWith(SUFFIX) && name.length() == 12 + SUFFIX.length())
+					.map(name -> Long.parseLong(name.substring(0, 12)))
+					.sorted()
+					.toList();
+		}
+		if (numbers.isEmpty()) {
+			return;
+		}
+
+		Map<Integer, RecoveredGame> games = new LinkedHashMap<>();
+		Map<Integer, Long> starts = new HashMap<>();
+		long last = -1;
+		for (long number : numbers) {
+			MappedByteBuffer segment = segment(number);
+			for (int slot = 0; slot < SEGMENT_RECORDS; slot++) {
+				int offset = slot * RECORD_SIZE;
+				int roomId = segment.getInt(offset);
+				int sequence = segment.getInt(offset + 4);
+				long timestamp = segment.getLong(offset + 8);
+				byte type = segment.get(offset + 16);
+				byte player = segment.get(offset + 17);
+				short value = segment.getShort(offset + 18);
+				if (segment.getInt(offset + 20) != checksum(roomId, sequence, timestamp, type, player, value)) {
+					continue;
+				}
+				last = number * SEGMENT_RECORDS + slot;
+				if (type == START) {
+					games.remove(roomId);
+					games.put(roomId, new RecoveredGame(roomId, sequence, (value >> 10) & 0x1f, (value >> 5) & 0x1f, value & 0x1f));
+					starts.put(roomId, number);
+				} else if (type == MOVE && games.containsKey(roomId)) {
+					games.get(roomId).add(sequence, BinaryProtocol.decodePlayer(player), value);
+				} else if (type == SEAT && games.containsKey(roomId)) {
+					games.get(roomId).seat(BinaryProtocol.decodePlayer(player), timestamp);
+				} else if (type == END) {
+					games.remove(roomId);
+				}
+			}
+		}
+		firstSegment = numbers.get(0);
+		next.set(last >= 0 ? last + 1 : firstSegment * SEGMENT_RECORDS);
+		synced = next.get();
+
+		for (RecoveredGame game : games.values()) {
+			if (game.isInProgress()) {
+				recovered.add(game);
+				liveGames.put(game.getRoomId(), starts.get(game.getRoomId()));
+			}
+		}
+		Log.info("Journal: {} games in progress recovered from {} segments", recovered.size(), numbers.size());
+	}
+
+	/**
+     * Forces the remaining records to disk and stops the sync thread.
+     */
+	@Override
+	public void close() {
+		if (syncer != null) {
+			syncer.shutdown();
+			try {
+				syncer.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			sync();
+		}
+	}
+
+	/**
+     * The RecoveredGame class is a game rebuilt from the journal: the board
+     * size, the moves made so far and the last sequence number of its room.
+     */
+	public static final class RecoveredGame {
+		private final int roomId;
+		private final GameBoard board;
+		private final List<String> players = new ArrayList<>();
+		private final List<Integer> cells = new ArrayList<>();
+		private final long[] tokens = new long[2];
+		private int sequence;
+
+		RecoveredGame(int roomId, int sequence, int width, int height, int winLength) {
+			this.roomId = roomId;
+			this.sequence = sequence;
+			this.board = GameBoard.create(width, height, winLength);
+		}
+
+		void add(int moveSequence, String player, int cell) {
+			sequence = moveSequence;
+			players.add(player);
+			cells.add(cell);
+			board.updateBoard(player, cell / board.getWidth(), cell % board.getWidth());
+		}
+
+		void seat(String player, long token) {
+			tokens[player.equals("X") ? 0 : 1] = token;
+		}
+
+		boolean isInProgress() {
+			return board.getMoveCount() > 0 && board.checkWin().equals("continue");
+		}
+
+		/**
+         * Returns the id of the room the game was played in.
+         *
+         * @return the room id
+         */
+		public int getRoomId() {
+			return roomId;
+		}
+
+		/**
+         * Returns the sequence number of the last event of the room.
+         *
+         * @return the sequence number
+         */
+		public int getSequence() {
+			return sequence;
+		}
+
+		/**
+         * Returns the session token of the player in a seat of the game.
+         *
+         * @param player 	the seat (either X or O)
+         * @return the token, or 0 if no player with a session sat there,
+         *         e.g. a bot
+         */
+		public long getToken(String player) {
+			return tokens[player.equals("X") ? 0 : 1];
+		}
+
+		/**
+         * Returns the board the game is played on, with its moves made.
+         * Its size is that of the original room.
+         *
+         * @return the rebuilt board
+         */
+		public GameBoard getBoard() {
+			return board;
+		}
+
+		/**
+         * Returns the cells of the moves of the game, in the order they were
+         * played, each as row * width + col.
+         *
+         * @return the cells of the moves
+         */
+		public int[] getCells() {
+			int[] played = new int[cells.size()];
+			for (int i = 0; i < played.length; i++) {
+				played[i] = cells.get(i);
+			}
+			return played;
+		}
+
+		/**
+         * Makes the moves of the game on another board of the same size.
+         *
+         * @param target 	the empty board to play the moves on
+         */
+		public void replay(GameBoard target) {
+			for (int i = 0; i < cells.size(); i++) {
+				int cell = cells.get(i);
+				target.updateBoard(players.get(i), cell / target.getWidth(), cell % target.getWidth());
+			}
+		}
+	}
+}
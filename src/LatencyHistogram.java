@@ -0,0 +1,113 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyHistogram class records durations in log-linear buckets: each
+ * range between two powers of two nanoseconds is split into SUB_BUCKETS
+ * equal buckets. Each bucket is a LongAdder, so threads recording at the
+ * same time do not contend, and a percentile is read as the upper bound of
+ * the bucket that contains it, i.e. within 1/SUB_BUCKETS of the true value.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+
+	/**
+     * Constructs an empty LatencyHistogram.
+     */
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+     * Records a duration.
+     *
+     * @param nanos 	the duration in nanoseconds
+     */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets[bucketOf(nanos)].increment();
+		count.increment();
+		totalNanos.add(nanos);
+	}
+
+	/**
+     * Returns the number of recorded durations.
+     *
+     * @return the count
+     */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+     * Returns the mean of the recorded durations.
+     *
+     * @return the mean in nanoseconds, or 0 if nothing was recorded
+     */
+	public long getMeanNanos() {
+		long n = count.sum();
+		return n == 0 ? 0 : totalNanos.sum() / n;
+	}
+
+	/**
+     * Returns an upper bound of a percentile of the recorded durations.
+     *
+     * @param percentile 	the percentile, between 0 and 100
+     * @return the upper bound of the bucket holding the percentile in
+     *         nanoseconds, or 0 if nothing was recorded
+     */
+	public long getPercentileNanos(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= Math.max(rank, 1)) {
+				return upperBound(i);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+     * Maps a duration to its bucket. Durations below SUB_BUCKETS have a
+     * bucket each; above, the highest bit selects the power of two and the
+     * next SUB_BUCKET_BITS bits the bucket within it.
+     */
+	private static int bucketOf(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int sub = (int) (nanos >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		long upper = ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+		return upper < 0 ? Long.MAX_VALUE : upper;
+	}
+}
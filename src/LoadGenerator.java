@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LoadGenerator class is a headless client that plays many games against
+ * a server at once, to find how much load one server can take. Every bot is
+ * a game session: it joins with "name", plays random legal
+ * moves in turn, asks for a new game with "restart" once a game ends, and
+ * leaves with "exit" when the run is over. Each bot is a GameListener of a
+ * GameClient, and the clients share a few ClientLoops, so thousands of bots
+ * fit in one JVM.
+ *
+ * The time from sending a move to receiving the server's announcement of
+ * it is recorded as the move's round trip. At the end, the run reports the
+ * throughput in moves and games per second and the mean, p50, p99 and p999
+ * round trip.
+ *
+ * Usage: java LoadGenerator [pairs] [seconds]. The server is read from the
+ * system properties "load.host" and "load.port" (default 127.0.0.1:5001),
+ * the board size from "load.board", e.g. "15 15 5" (default 3 3 3), and
+ * "load.binary=true" makes the bots use the binary protocol. With
+ * "load.names=N", the bots join under N player names, so their results are
+ * counted in the server's player statistics.
+ */
+public class LoadGenerator {
+	private static final int DEFAULT_PAIRS = 1000;
+	private static final int DEFAULT_SECONDS = 30;
+	private static final long DRAIN_TIMEOUT_MILLIS = 10_000;
+	private static final int PLAYER_NAMES = Integer.getInteger("load.names", 0);
+
+	private final InetSocketAddress address;
+	private final int sessions;
+	private final int[] boardSize;
+	private final boolean binary;
+	private final ClientLoop[] loops;
+	private final LatencyHistogram moveLatency = new LatencyHistogram();
+	private final LongAdder moves = new LongAdder();
+	private final LongAdder games = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder finished = new LongAdder();
+	private volatile boolean stopping;
+
+	/**
+     * Constructs a LoadGenerator.
+     *
+     * @param address 		the address of the server
+     * @param pairs 		the number of games played at once, two bots each
+     * @param boardSize 	the width, height and win length of the boards
+     * @param binary 		true to use the binary protocol
+     * @param loopCount 	the number of I/O threads running the bots
+     * @throws IOException if a selector cannot be opened
+     */
+	public LoadGenerator(InetSocketAddress address, int pairs, int[] boardSize, boolean binary, int loopCount)
+			throws IOException {
+		this.address = address;
+		this.sessions = pairs * 2;
+		this.boardSize = boardSize;
+		this.binary = binary;
+		this.loops = new ClientLoop[loopCount];
+		for (int i = 0; i < loopCount; i++) {
+			loops[i] = new ClientLoop();
+		}
+	}
+
+	/**
+     * Connects the bots, lets them play for the specified time, waits for
+     * the games in progress to end and prints the results.
+     *
+     * @param seconds 	the duration of the run
+     * @throws IOException if a bot cannot connect
+     * @throws InterruptedException if the run is interrupted
+     */
+	public void run(int seconds) throws IOException, InterruptedException {
+		for (int i = 0; i < loops.length; i++) {
+			loops[i].start("load-loop-" + i);
+		}
+
+		long connectStart = System.nanoTime();
+		for (int i = 0; i < sessions; i++) {
+			GameClient client = new GameClient(loops[i % loops.length], boardSize[0], boardSize[1], boardSize[2]);
+			client.addListener(new Bot(client));
+			client.connect(address, binary);
+			client.join(PLAYER_NAMES > 0 ? "load-" + (i % PLAYER_NAMES) : null);
+		}
+		System.out.printf("Connected %d sessions in %d ms%n", sessions, (System.nanoTime() - connectStart) / 1_000_000);
+
+		long start = System.nanoTime();
+		long lastMoves = 0;
+		for (int second = 1; second <= seconds; second++) {
+			Thread.sleep(1000);
+			long total = moves.sum();
+			System.out.printf("%3d s: %,d moves/s, %,d games, %d errors%n", second, total - lastMoves, games.sum(), errors.sum());
+			lastMoves = total;
+		}
+		long elapsed = System.nanoTime() - start;
+
+		stopping = true;
+		long drainDeadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+		while (finished.sum() < sessions && System.currentTimeMillis() < drainDeadline) {
+			Thread.sleep(10);
+		}
+		report(elapsed);
+	}
+
+	private void report(long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		System.out.printf("Sessions:   %d (%d did not finish)%n", sessions, sessions - finished.sum());
+		System.out.printf("Moves:      %,d (%,.0f/s)%n", moves.sum(), moves.sum() / seconds);
+		System.out.printf("Games:      %,d (%,.0f/s)%n", games.sum(), games.sum() / seconds);
+		System.out.printf("Errors:     %d%n", errors.sum());
+		System.out.printf("Move round trip (ms): mean %.3f, p50 %.3f, p99 %.3f, p999 %.3f%n",
+				moveLatency.getMeanNanos() / 1e6, moveLatency.getPercentileNanos(50) / 1e6,
+				moveLatency.getPercentileNanos(99) / 1e6, moveLatency.getPercentileNanos(99.9) / 1e6);
+	}
+
+	/**
+     * The main method that runs the load generator.
+     *
+     * @param args 	the optional number of pairs and duration in seconds
+     * @throws Exception if the run fails
+     */
+	public static void main(String[] args) throws Exception {
+		int pairs = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PAIRS;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+		InetSocketAddress address = new InetSocketAddress(System.getProperty("load.host", "127.0.0.1"),
+				Integer.getInteger("load.port", 5001));
+		String[] board = System.getProperty("load.board", "3 3 3").trim().split("\\s+");
+		int[] boardSize = {Integer.parseInt(board[0]), Integer.parseInt(board[1]), Integer.parseInt(board[2])};
+		if (!GameBoard.isValidSize(boardSize[0], boardSize[1], boardSize[2])) {
+			throw new IllegalArgumentException("Invalid board size " + String.join(" ", board));
+		}
+
+		boolean binary = Boolean.getBoolean("load.binary");
+		System.out.printf("Playing %d games at once against %s for %d s%n", pairs, address, seconds);
+		int loopCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		new LoadGenerator(address, pairs, boardSize, binary, loopCount).run(seconds);
+	}
+
+	/**
+     * The Bot class is one simulated player, driving its GameClient from the
+     * client's events. It runs on the loop of its client.
+     */
+	private class Bot implements GameListener {
+		private final GameClient client;
+		private long moveSentAt;
+
+		/**
+         * Constructs a Bot playing through the specified client.
+         *
+         * @param client 	the client of the bot
+         */
+		Bot(GameClient client) {
+			this.client = client;
+		}
+
+		@Override
+		public void onOpponentJoined() {
+			makeMove();
+		}
+
+		@Override
+		public void onMoved(String playerMoved, int row, int col) {
+			if (playerMoved.equals(client.getPlayer())) {
+				moveLatency.record(System.nanoTime() - moveSentAt);
+				moves.increment();
+			} else {
+				makeMove();
+			}
+		}
+
+		@Override
+		public void onResult(String result) {
+			if (client.getPlayer().equals("X")) {
+				games.increment();
+				if (stopping) {
+					client.exit();
+					return;
+				}
+			}
+			client.restart();
+		}
+
+		@Override
+		public void onNewGame() {
+			if (client.getPlayer().equals("X")) {
+				makeMove();
+			}
+		}
+
+		@Override
+		public void onOpponentLeft() {
+			client.close();
+		}
+
+		@Override
+		public void onClosed(Exception error) {
+			finished.increment();
+			if (error != null) {
+				errors.increment();
+				if (errors.sum() <= 10) {
+					System.out.println("Bot: " + error.getMessage());
+				}
+			}
+		}
+
+		/**
+         * Sends a move to a random free cell, unless the game is over.
+         */
+		private void makeMove() {
+			GameBoard board = client.getBoard();
+			if (!board.checkWin().equals("continue")) {
+				return;
+			}
+			int width = board.getWidth();
+			int cells = width * board.getHeight();
+			int cell = ThreadLocalRandom.current().nextInt(cells);
+			while (board.getGrid(cell / width, cell % width) != null) {
+				cell = (cell + 1) % cells;
+			}
+			moveSentAt = System.nanoTime();
+			client.move(cell / width, cell % width);
+		}
+	}
+}
@@ -0,0 +1,279 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The Log class is the server's logging facility. Logging a message only
+ * stores the template and its arguments in a lock-free ring buffer; a
+ * background thread formats the messages and prints them, so no thread
+ * handling a client ever waits on the shared stdout stream.
+ *
+ * Messages below the current level return before touching the buffer.
+ * Templates use "{}" as the placeholder for each argument, and arguments
+ * are only converted to text on the background thread, so they must not
+ * be modified after being logged. If the buffer is full, messages are
+ * dropped and counted instead of blocking the caller.
+ *
+ * The level is read from the system property "log.level" (DEBUG, INFO,
+ * WARN or ERROR) and defaults to INFO.
+ */
+public final class Log {
+	public static final int DEBUG = 0;
+	public static final int INFO = 1;
+	public static final int WARN = 2;
+	public static final int ERROR = 3;
+
+	private static final String[] LEVEL_NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+	private static final int CAPACITY = 1 << 13;
+	private static final int MASK = CAPACITY - 1;
+	private static final long IDLE_PARK_NANOS = 1_000_000;
+
+	private static volatile int level = parseLevel(System.getProperty("log.level", "INFO"));
+
+	private static final AtomicLong claimed = new AtomicLong();
+	private static final AtomicLong consumed = new AtomicLong();
+	private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+	private static final int[] levels = new int[CAPACITY];
+	private static final String[] templates = new String[CAPACITY];
+	private static final Object[] firstArgs = new Object[CAPACITY];
+	private static final Object[] secondArgs = new Object[CAPACITY];
+	private static final Object[] thirdArgs = new Object[CAPACITY];
+	private static final LongAdder dropped = new LongAdder();
+	private static final PrintStream out = System.out;
+
+	static {
+		for (int i = 0; i < CAPACITY; i++) {
+			published.set(i, -1);
+		}
+		Thread writer = new Thread(Log::drain, "log-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private Log() {
+	}
+
+	/**
+     * Sets the lowest level that is logged.
+     *
+     * @param newLevel 	one of DEBUG, INFO, WARN or ERROR
+     */
+	public static void setLevel(int newLevel) {
+		level = newLevel;
+	}
+
+	/**
+     * Checks if debug messages are logged, e.g. before building an
+     * argument that is costly to create.
+     *
+     * @return true if debug messages are logged, false otherwise
+     */
+	public static boolean isDebugEnabled() {
+		return level <= DEBUG;
+	}
+
+	/**
+     * Logs a message at DEBUG level.
+     *
+     * @param template 	the message, with a "{}" placeholder per argument
+     */
+	public static void debug(String template) {
+		if (level <= DEBUG) {
+			append(DEBUG, template, null, null, null);
+		}
+	}
+
+	/**
+     * Logs a message at DEBUG level.
+     *
+     * @param template 	the message, with a "{}" placeholder per argument
+     * @param arg 		the argument of the placeholder
+     */
+	public static void debug(String template, Object arg) {
+		if (level <= DEBUG) {
+			append(DEBUG, template, arg, null, null);
+		}
+	}
+
+	/**
+     * Logs a message at DEBUG level.
+     *
+     * @param template 	the message, with a "{}" placeholder per argument
+     * @param arg1 		the argument of the first placeholder
+     * @param arg2 		the argument of the second placeholder
+     */
+	public static void debug(String template, Object arg1, Object arg2) {
+		if (level <= DEBUG) {
+			append(DEBUG, template, arg1, arg2, null);
+		}
+	}
+
+	/**
+     * Logs a message at DEBUG level.
+     *
+     * @param template 	the message, with a "{}" placeholder per argument
+     * @param arg1 		the argument of the first placeholder
+     * @param arg2 		the argument of the second placeholder
+     * @param arg3 		the argument of the third placeholder
+     */
+	public static void debug(String template, Object arg1, Object arg2, Object arg3) {
+		if (level <= DEBUG) {
+			append(DEBUG, template, arg1, arg2, arg3);
+		}
+	}
+
+	/**
+     * Logs a message at INFO level.
+     *
+     * @param template 	the message, with a "{}" placeholder per argument
+     */
+	public static void info(String template) {
+		if (level <= INFO) {
+			append(INFO, template, null, null, null);
+		}
+	}
+
+	/**
+     * Logs a message at INFO level.
+     *
+     * @param template 	the message, with a "{}" placeholder per argument
+     * @param arg 		the argument of the placeholder
+     */
+	public static void info(String template, Object arg) {
+		if (level <= INFO) {
+			append(INFO, template, arg, null, null);
+		}
+	}
+
+	/**
+     * Logs a message at INFO level.
+     *
+     * @param template 	the message, with a "{}" placeholder per argument
+     * @param arg1 		the argument of the first placeholder
+     * @param arg2 		the argument of the second placeholder
+     */
+	public static void info(String template, Object arg1, Object arg2) {
+		if (level <= INFO) {
+			append(INFO, template, arg1, arg2, null);
+		}
+	}
+
+	/**
+     * Logs a message at WARN level.
+     *
+     * @param template 	the message, with a "{}" placeholder per argument
+     * @param arg 		the argument of the placeholder
+     */
+	public static void warn(String template, Object arg) {
+		if (level <= WARN) {
+			append(WARN, template, arg, null, null);
+		}
+	}
+
+	/**
+     * Logs a message at WARN level.
+     *
+     * @param template 	the message, with a "{}" placeholder per argument
+     * @param arg1 		the argument of the first placeholder
+     * @param arg2 		the argument of the second placeholder
+     */
+	public static void warn(String template, Object arg1, Object arg2) {
+		if (level <= WARN) {
+			append(WARN, template, arg1, arg2, null);
+		}
+	}
+
+	/**
+     * Logs a message at ERROR level.
+     *
+     * @param template 	the message, with a "{}" placeholder per argument
+     * @param arg 		the argument of the placeholder
+     */
+	public static void error(String template, Object arg) {
+		if (level <= ERROR) {
+			append(ERROR, template, arg, null, null);
+		}
+	}
+
+	/**
+     * Returns the number of messages dropped because the buffer was full.
+     *
+     * @return the number of dropped messages
+     */
+	public static long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+     * Claims a slot of the ring buffer, fills it and publishes it to the
+     * writer thread.
+     */
+	private static void append(int messageLevel, String template, Object arg1, Object arg2, Object arg3) {
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence - consumed.get() >= CAPACITY) {
+				dropped.increment();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+
+		int slot = (int) (sequence & MASK);
+		levels[slot] = messageLevel;
+		templates[slot] = template;
+		firstArgs[slot] = arg1;
+		secondArgs[slot] = arg2;
+		thirdArgs[slot] = arg3;
+		published.lazySet(slot, sequence);
+	}
+
+	/**
+     * Prints published messages in order, parking briefly whenever the
+     * buffer is empty.
+     */
+	private static void drain() {
+		StringBuilder line = new StringBuilder(128);
+		long next = 0;
+		while (true) {
+			int slot = (int) (next & MASK);
+			if (published.get(slot) != next) {
+				out.flush();
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+				continue;
+			}
+
+			line.setLength(0);
+			line.append('[').append(LEVEL_NAMES[levels[slot]]).append("] ");
+			format(line, templates[slot], firstArgs[slot], secondArgs[slot], thirdArgs[slot]);
+			templates[slot] = null;
+			firstArgs[slot] = null;
+			secondArgs[slot] = null;
+			thirdArgs[slot] = null;
+			consumed.lazySet(++next);
+			out.println(line);
+		}
+	}
+
+	private static void format(StringBuilder line, String template, Object arg1, Object arg2, Object arg3) {
+		Object[] args = {arg1, arg2, arg3};
+		int argIndex = 0;
+		int start = 0;
+		int placeholder;
+		while (argIndex < args.length && (placeholder = template.indexOf("{}", start)) >= 0) {
+			line.append(template, start, placeholder).append(args[argIndex++]);
+			start = placeholder + 2;
+		}
+		line.append(template, start, template.length());
+	}
+
+	private static int parseLevel(String name) {
+		for (int i = 0; i < LEVEL_NAMES.length; i++) {
+			if (LEVEL_NAMES[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return INFO;
+	}
+}
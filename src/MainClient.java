@@ -8,6 +8,8 @@ public class MainClient {
 
 	 /**
      * The main function that triggers the client's user interface and application.
+     * The optional arguments "width height winLength" request a larger board,
+     * e.g. "15 15 5" for five in a row on a 15x15 board.
      *
      * @param args command-line arguments
      */
@@ -16,7 +18,13 @@ public class MainClient {
 			@Override
 			public void run() {
 				View view = new View();
-				PlayerHandler controller = new PlayerHandler(view);
+				PlayerHandler controller;
+				if (args.length >= 3) {
+					controller = new PlayerHandler(view, Integer.parseInt(args[0]),
+							Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+				} else {
+					controller = new PlayerHandler(view);
+				}
 				controller.start();
 			}
 		});
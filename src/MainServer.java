@@ -1,5 +1,7 @@
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 
 /**
  * The MainServer class is the entry point for the Tic Tac Toe server application.
@@ -9,21 +11,57 @@ import java.net.ServerSocket;
 public class MainServer {
 
 	/**
-     * The main method that starts the server.
+     * The main method that starts the server. The first argument selects
+     * how clients are served: "pool" (default) runs each client on a fixed
+     * pool of 200 platform threads, "virtual" runs each client on its own
+     * virtual thread, and "nio" uses the non-blocking selector transport.
+     * 
+     * The metrics are registered over JMX and served over HTTP on the
+     * loopback interface, on the port given by -Dmetrics.port (default 5002).
+     * When the server stops, the journal's last records are forced to disk.
      * 
      *  @param args command-line arguments
      */
 	public static void main(String[] args) throws IOException {
 		
 		System.out.println("Server is Running...");
+		try {
+			ServerMetrics.registerMBean();
+			int metricsPort = Integer.getInteger("metrics.port", 5002);
+			ServerMetrics.startHttpEndpoint(metricsPort);
+			System.out.println("Metrics at http://localhost:" + metricsPort + ServerMetrics.HTTP_PATH);
+		} catch (Exception e) {
+			System.out.println("Metrics unavailable: " + e.getMessage());
+		}
+		RoomRegistry rooms = new RoomRegistry();
 		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
 			public void run() {
+				rooms.shutdown();
+				System.out.println(WriteStats.report());
 				System.out.println("Server Stopped.");
 			}
 		}));
 
+		String transport = args.length > 0 ? args[0] : "pool";
+		
+		if (transport.equals("nio")) {
+			try (var listener = ServerSocketChannel.open()) {
+				listener.bind(new InetSocketAddress(5001));
+				NioServer myServer = new NioServer(listener, Runtime.getRuntime().availableProcessors(), rooms);
+				myServer.start();
+			} catch (Exception e) {
+				System.out.println(e.getMessage());
+			}
+			return;
+		}
+
 		try (var listener = new ServerSocket(5001)) {
-			Server myServer = new Server(listener);
+			Server myServer;
+			if (transport.equals("virtual")) {
+				myServer = new Server(listener, Server.newVirtualThreadExecutor(), Server.newVirtualThreadExecutor(), rooms);
+			} else {
+				myServer = new Server(listener, rooms);
+			}
 			myServer.start();
 		} catch (Exception e) {
 			System.out.println(e.getMessage());
@@ -0,0 +1,324 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The Matchmaker class pairs waiting players by their Elo rating. Players
+ * are only paired with players who asked for the same board size.
+ *
+ * Joining the queue only adds a Ticket to a lock-free inbox, so any number
+ * of sessions can join at once. A single thread pairs the waiting players
+ * in batches every TICK_MILLIS: it sorts them into buckets of BUCKET_WIDTH
+ * rating points, walks the buckets from the lowest rating up and pairs each
+ * player with the next one if their ratings are close enough. The allowed
+ * gap starts at INITIAL_GAP points and widens by GAP_PER_SECOND for every
+ * second the longer waiting of the two has waited, so nobody waits long
+ * for a close match when there is none: after MAX_WAIT_MILLIS a player is
+ * paired with the nearest waiting player at any rating, or, if no one else
+ * waits and bots are enabled, with a bot after RoomRegistry.BOT_DELAY_MILLIS.
+ *
+ * The settings are read from the system properties "match.tick" (default
+ * 50 ms), "match.gap" (default 100), "match.widen" (default 50 per second)
+ * and "match.maxwait" (default 5000 ms). The queue depth and the time from
+ * joining the queue to being paired are recorded in ServerMetrics.
+ */
+public class Matchmaker {
+	public static final long TICK_MILLIS = Long.getLong("match.tick", 50);
+	public static final int INITIAL_GAP = Integer.getInteger("match.gap", 100);
+	public static final int GAP_PER_SECOND = Integer.getInteger("match.widen", 50);
+	public static final long MAX_WAIT_MILLIS = Long.getLong("match.maxwait", 5_000);
+	public static final int BUCKET_WIDTH = 25;
+
+	private static final int BUCKETS = 4000 / BUCKET_WIDTH;
+	private static final int WAITING = 0;
+	private static final int MATCHED = 1;
+	private static final int CANCELLED = 2;
+	private static final Comparator<Ticket> BY_RATING = Comparator.comparingInt(ticket -> ticket.rating);
+
+	private final Queue<Ticket> inbox = new ConcurrentLinkedQueue<>();
+	private final Map<Integer, List<Ticket>> waiting = new HashMap<>();
+	private final List<Ticket>[] buckets;
+	private final BiConsumer<Ticket, Ticket> onMatch;
+	private final long botDelayNanos;
+
+	/**
+     * The Ticket class is a player's place in the queue.
+     */
+	public static final class Ticket {
+		private final ClientConnection connection;
+		private final int width;
+		private final int height;
+		private final int winLength;
+		private final int sizeKey;
+		private final int rating;
+		private final ObjIntConsumer<GameRoom> onJoined;
+		private final long enqueued = System.nanoTime();
+		private volatile int state = WAITING;
+
+		private Ticket(ClientConnection connection, int width, int height, int winLength, int rating,
+				ObjIntConsumer<GameRoom> onJoined) {
+			this.connection = connection;
+			this.width = width;
+			this.height = height;
+			this.winLength = winLength;
+			this.sizeKey = (width << 16) | (height << 8) | winLength;
+			this.rating = rating;
+			this.onJoined = onJoined;
+		}
+
+		/**
+         * Takes the player out of the queue, unless it has been paired
+         * already.
+         *
+         * @return true if the player will not be paired, false if it has
+         *         been paired and is being seated
+         */
+		public synchronized boolean cancel() {
+			if (state == WAITING) {
+				state = CANCELLED;
+			}
+			return state == CANCELLED;
+		}
+
+		private boolean isWaiting() {
+			return state == WAITING;
+		}
+
+		/**
+         * Takes the player out of the queue to be seated, unless it has
+         * been cancelled.
+         */
+		private synchronized boolean claim() {
+			if (state != WAITING) {
+				return false;
+			}
+			state = MATCHED;
+			return true;
+		}
+
+		/**
+         * Returns the connection of the player.
+         *
+         * @return the connection
+         */
+		public ClientConnection getConnection() {
+			return connection;
+		}
+
+		/**
+         * Returns the number of columns of the board the player asked for.
+         *
+         * @return the board width
+         */
+		public int getWidth() {
+			return width;
+		}
+
+		/**
+         * Returns the number of rows of the board the player asked for.
+         *
+         * @return the board height
+         */
+		public int getHeight() {
+			return height;
+		}
+
+		/**
+         * Returns the win length of the board the player asked for.
+         *
+         * @return the number of marks in a row needed to win
+         */
+		public int getWinLength() {
+			return winLength;
+		}
+
+		/**
+         * Returns the callback to run once the player is seated.
+         *
+         * @return the callback, taking the room and the player's seat
+         */
+		public ObjIntConsumer<GameRoom> getOnJoined() {
+			return onJoined;
+		}
+
+		/**
+         * Returns the largest rating gap this player accepts after waiting
+         * for the specified time.
+         */
+		private long allowedGap(long now) {
+			long waitedMillis = (now - enqueued) / 1_000_000;
+			if (waitedMillis >= MAX_WAIT_MILLIS) {
+				return Long.MAX_VALUE;
+			}
+			return INITIAL_GAP + GAP_PER_SECOND * waitedMillis / 1000;
+		}
+	}
+
+	/**
+     * Constructs a Matchmaker and starts pairing.
+     *
+     * @param botDelayMillis 	the time after which a player nobody can be
+     *                          paired with is given a bot, or negative for
+     *                          no bots
+     * @param onMatch 			called on the matchmaker's thread with the
+     *                          tickets of each pair, the one who waited
+     *                          longer first, or with a ticket and null when
+     *                          the player is to play a bot
+     */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public Matchmaker(long botDelayMillis, BiConsumer<Ticket, Ticket> onMatch) {
+		this.botDelayNanos = botDelayMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(botDelayMillis);
+		this.onMatch = onMatch;
+		this.buckets = new List[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new ArrayList<>();
+		}
+		ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "matchmaker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ticker.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+     * Puts a player in the queue. May be called from any thread.
+     *
+     * @param connection 	the connection of the player
+     * @param width 		the number of columns of the board
+     * @param height 		the number of rows of the board
+     * @param winLength 	the number of marks in a row needed to win
+     * @param rating 		the rating of the player
+     * @param onJoined 		called with the room and the player's seat once the
+     *                      player is seated
+     * @return the player's ticket
+     */
+	public Ticket enqueue(ClientConnection connection, int width, int height, int winLength, int rating,
+			ObjIntConsumer<GameRoom> onJoined) {
+		Ticket ticket = new Ticket(connection, width, height, winLength, rating, onJoined);
+		inbox.add(ticket);
+		return ticket;
+	}
+
+	/**
+     * Pairs the waiting players of every board size, and forgets the board
+     * sizes nobody waits for any more. Runs on the matchmaker's thread.
+     */
+	private void tick() {
+		try {
+			Ticket ticket;
+			while ((ticket = inbox.poll()) != null) {
+				waiting.computeIfAbsent(ticket.sizeKey, k -> new ArrayList<>()).add(ticket);
+			}
+			long now = System.nanoTime();
+			int depth = 0;
+			for (Iterator<List<Ticket>> sizes = waiting.values().iterator(); sizes.hasNext(); ) {
+				List<Ticket> players = sizes.next();
+				pair(players, now);
+				if (players.isEmpty()) {
+					sizes.remove();
+				}
+				depth += players.size();
+			}
+			ServerMetrics.matchmakingQueueDepth(depth);
+		} catch (RuntimeException e) {
+			Log.warn("Matchmaker: {}", e.getMessage());
+		}
+	}
+
+	/**
+     * Pairs the waiting players of one board size, and leaves the players
+     * who could not be paired in the list, in rating order.
+     *
+     * @param players 	the waiting players
+     * @param now 		the System.nanoTime() of this tick
+     */
+	private void pair(List<Ticket> players, long now) {
+		if (players.isEmpty()) {
+			return;
+		}
+		for (Ticket ticket : players) {
+			if (ticket.isWaiting()) {
+				buckets[Math.max(0, Math.min(BUCKETS - 1, ticket.rating / BUCKET_WIDTH))].add(ticket);
+			}
+		}
+		players.clear();
+
+		Ticket previous = null;
+		for (List<Ticket> bucket : buckets) {
+			if (bucket.isEmpty()) {
+				continue;
+			}
+			bucket.sort(BY_RATING);
+			for (Ticket ticket : bucket) {
+				if (!ticket.isWaiting()) {
+					continue;
+				}
+				if (previous != null && matches(previous, ticket, now) && match(previous, ticket)) {
+					previous = null;
+					continue;
+				}
+				if (previous != null && previous.isWaiting()) {
+					players.add(previous);
+				}
+				previous = ticket;
+			}
+			bucket.clear();
+		}
+		if (previous != null && previous.isWaiting()) {
+			players.add(previous);
+		}
+
+		if (botDelayNanos >= 0) {
+			players.removeIf(ticket -> now - ticket.enqueued >= botDelayNanos && ticket.claim()
+					&& accept(ticket, null));
+		}
+		players.removeIf(ticket -> !ticket.isWaiting());
+	}
+
+	private static boolean matches(Ticket a, Ticket b, long now) {
+		long gap = Math.abs(a.rating - b.rating);
+		return gap <= Math.max(a.allowedGap(now), b.allowedGap(now));
+	}
+
+	/**
+     * Claims both tickets of a pair at once and hands them over, unless
+     * one of them has been cancelled meanwhile. Only the matchmaker's
+     * thread locks two tickets, so the locks cannot deadlock.
+     */
+	private boolean match(Ticket a, Ticket b) {
+		synchronized (a) {
+			synchronized (b) {
+				if (!a.isWaiting() || !b.isWaiting()) {
+					return false;
+				}
+				a.state = MATCHED;
+				b.state = MATCHED;
+			}
+		}
+		return a.enqueued <= b.enqueued ? accept(a, b) : accept(b, a);
+	}
+
+	private boolean accept(Ticket first, Ticket second) {
+		ServerMetrics.playerMatched(first.enqueued);
+		if (second != null) {
+			ServerMetrics.playerMatched(second.enqueued);
+		}
+		try {
+			onMatch.accept(first, second);
+		} catch (RuntimeException e) {
+			Log.warn("Matchmaker: {}", e.getMessage());
+		}
+		return true;
+	}
+}
@@ -0,0 +1,160 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The Message class is an immutable message from the server to a client.
+ * It is encoded once, for both the text and the binary protocol, when it is
+ * created, so broadcasting it to a room only hands the same bytes to every
+ * connection.
+ */
+public final class Message {
+	public static final Message P1_JOINED = new Message("P1 joined", BinaryProtocol.frame(BinaryProtocol.P1_JOINED));
+	public static final Message P2_JOINED = new Message("P2 joined", BinaryProtocol.frame(BinaryProtocol.P2_JOINED));
+	public static final Message START_NEW_GAME = new Message("start new game", BinaryProtocol.frame(BinaryProtocol.START_NEW_GAME));
+	public static final Message RESULT_X = new Message("result X", BinaryProtocol.frame(BinaryProtocol.RESULT, BinaryProtocol.PLAYER_X));
+	public static final Message RESULT_O = new Message("result O", BinaryProtocol.frame(BinaryProtocol.RESULT, BinaryProtocol.PLAYER_O));
+	public static final Message RESULT_DRAW = new Message("result draw", BinaryProtocol.frame(BinaryProtocol.RESULT, BinaryProtocol.RESULT_DRAW));
+	public static final Message BINARY_ACCEPTED = new Message(BinaryProtocol.HANDSHAKE, null);
+	public static final Message PROTOCOL_TEXT = new Message("protocol text", null);
+	public static final Message SESSION_EXPIRED = session(0, 0);
+
+	private static final Message[][] MOVES = new Message[2][BinaryProtocol.packCell(GameBoard.MAX_SIZE, 0)];
+
+	private final String text;
+	private final byte[] textBytes;
+	private final byte[] frame;
+
+	private Message(String text, byte[] frame) {
+		this.text = text;
+		this.textBytes = (text + "\n").getBytes(StandardCharsets.UTF_8);
+		this.frame = frame;
+	}
+
+	/**
+     * Creates the message announcing the board size of a room.
+     *
+     * @param width 		the number of columns
+     * @param height 		the number of rows
+     * @param winLength 	the number of marks in a row needed to win
+     * @return the message
+     */
+	public static Message board(int width, int height, int winLength) {
+		return new Message("board " + width + " " + height + " " + winLength,
+				BinaryProtocol.frame(BinaryProtocol.BOARD, (byte) width, (byte) height, (byte) winLength));
+	}
+
+	/**
+     * Returns the message announcing a move. Move messages are created on
+     * first use and then reused, since a message is immutable and can be
+     * shared; a race between two threads creating the same message is
+     * harmless.
+     *
+     * @param player 	the player who moved (either X or O)
+     * @param row 		the row index of the move
+     * @param col 		the column index of the move
+     * @return the message
+     */
+	public static Message move(String player, int row, int col) {
+		Message[] moves = MOVES[BinaryProtocol.encodePlayer(player)];
+		int cell = BinaryProtocol.packCell(row, col);
+		Message message = moves[cell];
+		if (message == null) {
+			message = new Message("move " + player + " " + row + " " + col, BinaryProtocol.move(player, row, col));
+			moves[cell] = message;
+		}
+		return message;
+	}
+
+	/**
+     * Creates the message announcing that a player has left.
+     *
+     * @param player 	the player who left (either X or O)
+     * @return the message
+     */
+	public static Message exit(String player) {
+		return new Message("exit " + player, BinaryProtocol.frame(BinaryProtocol.EXIT, BinaryProtocol.encodePlayer(player)));
+	}
+
+	/**
+     * Creates the message announcing that a player wants a new game.
+     *
+     * @param player 	the player asking for a new game (either X or O)
+     * @return the message
+     */
+	public static Message restart(String player) {
+		return new Message("restart " + player, BinaryProtocol.frame(BinaryProtocol.RESTART, BinaryProtocol.encodePlayer(player)));
+	}
+
+	/**
+     * Creates the message answering a client's request for a hint.
+     *
+     * @param hint 	the hint for the player to move
+     * @return the message
+     */
+	public static Message hint(Hint hint) {
+		return new Message("hint " + hint, BinaryProtocol.hint(hint.getRow(), hint.getCol(), hint.getScore()));
+	}
+
+	/**
+     * Creates the message with one entry of the leaderboard.
+     *
+     * @param rank 		the rank of the player, from 1
+     * @param name 		the name of the player
+     * @param wins 		the wins of the player
+     * @param losses 	the losses of the player
+     * @param draws 	the draws of the player
+     * @return the message
+     */
+	public static Message leader(int rank, String name, long wins, long losses, long draws) {
+		return new Message("top " + rank + " " + name + " " + wins + " " + losses + " " + draws,
+				BinaryProtocol.leader(rank, name, wins, losses, draws));
+	}
+
+	/**
+     * Creates the message telling a player its session token and the
+     * sequence number of the last event of its room.
+     *
+     * @param token 		the session token, or 0 if the session could not be
+     *                      resumed
+     * @param sequence 		the sequence number of the room's last event
+     * @return the message
+     */
+	public static Message session(long token, int sequence) {
+		return new Message("session " + Long.toHexString(token) + " " + sequence,
+				BinaryProtocol.session(BinaryProtocol.SESSION, token, sequence));
+	}
+
+	/**
+     * Returns the message as a text protocol line.
+     *
+     * @return the line, without its terminator
+     */
+	public String getText() {
+		return text;
+	}
+
+	/**
+     * Returns the text protocol encoding of the message. The returned array
+     * is shared and must not be modified.
+     *
+     * @return the line, including its terminator
+     */
+	public byte[] getTextBytes() {
+		return textBytes;
+	}
+
+	/**
+     * Returns the binary protocol encoding of the message. The returned
+     * array is shared and must not be modified.
+     *
+     * @return the frame, or the text line for messages that are only sent
+     *         before the protocol is switched
+     */
+	public byte[] getFrame() {
+		return frame != null ? frame : textBytes;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+}
@@ -0,0 +1,429 @@
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * The MonteCarloSearch class chooses moves on boards too large to solve, by
+ * Monte Carlo tree search with the rules of GridBoard: a player wins with
+ * winLength marks in a row on a width x height board.
+ *
+ * The search is tree-parallel: every worker of a ForkJoinPool repeatedly
+ * walks the same tree from the root with UCT, plays the rest of the game at
+ * random from the leaf, and adds the outcome to the nodes on its path. Node
+ * statistics are only updated with atomic adds, and a visit is counted when
+ * a worker passes through a node, before its outcome is known. Until the
+ * outcome is added, the visit counts as a loss (a virtual loss), which
+ * steers the other workers towards other branches instead of all of them
+ * exploring the same line. Nodes are expanded by installing their children
+ * with a compare-and-set, so no locks are taken. The workers share no
+ * counter that every iteration writes: each worker plays its own share of
+ * the playout budget, and adds its visits of the root in batches of
+ * ROOT_BATCH, since every iteration passes through the root.
+ *
+ * Only cells next to a mark are considered as moves, which keeps the
+ * branching factor small on large, mostly empty boards, and a move that
+ * wins at once, or stops the opponent from winning at once, is played
+ * without searching.
+ *
+ * A search stops after its playout budget or its time budget, whichever is
+ * reached first. The result is delivered at the deadline at the latest,
+ * even if the pool is too busy to run the search at all, in which case the
+ * move is picked from the candidates at random. A search only starts as
+ * many workers as the pool has threads that are neither busy nor claimed
+ * by queued tasks, and at least one, so concurrent searches share the pool
+ * instead of queueing behind each other's full worker sets. Under load a
+ * search therefore runs fewer playouts by its deadline and its move is
+ * weaker.
+ */
+public class MonteCarloSearch {
+	private static final double EXPLORATION = Math.sqrt(2);
+	private static final int EXPAND_VISITS = 2;
+	private static final int ROOT_BATCH = 64;
+	private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+	private static final byte EMPTY = 0;
+	private static final byte X = 1;
+	private static final byte O = 2;
+
+	private final ForkJoinPool pool;
+
+	/**
+     * Constructs a MonteCarloSearch running its workers on the specified pool.
+     *
+     * @param pool 	the pool running the searches
+     */
+	public MonteCarloSearch(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+     * Searches the best move for the player to move, asynchronously.
+     *
+     * @param board 		the position to search from; it is copied before this
+     *                      method returns, so it may change afterwards
+     * @param timeMillis 	the time budget, after which the move is delivered
+     * @param playouts 		the playout budget
+     * @param mistakeRate 	the probability of returning a random candidate
+     *                      instead of the best move
+     * @return the chosen cell as row * width + col, or -1 if the game is over
+     */
+	public CompletableFuture<Integer> search(GameBoard board, long timeMillis, int playouts, double mistakeRate) {
+		Search search = new Search(board, playouts);
+		int immediate = search.immediateMove();
+		if (immediate != Search.NO_MOVE) {
+			return CompletableFuture.completedFuture(immediate);
+		}
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (random.nextDouble() < mistakeRate) {
+			return CompletableFuture.completedFuture(search.root.children[random.nextInt(search.root.children.length)].cell);
+		}
+		return start(search, timeMillis).thenApply(best -> best.cell);
+	}
+
+	/**
+     * Searches the best move for the player to move and its expected score,
+     * asynchronously. A move that wins at once is returned as a sure win;
+     * a forced block, or the centre of an empty board, is still searched for
+     * its score.
+     *
+     * @param board 		the position to search from; it is copied before this
+     *                      method returns, so it may change afterwards
+     * @param timeMillis 	the time budget, after which the hint is delivered
+     * @param playouts 		the playout budget
+     * @return the hint for the player to move, or null if the game is over
+     */
+	public CompletableFuture<Hint> analyze(GameBoard board, long timeMillis, int playouts) {
+		Search search = new Search(board, playouts);
+		int width = search.width;
+		int immediate = search.immediateMove();
+		if (immediate == -1) {
+			return CompletableFuture.completedFuture(null);
+		}
+		if (immediate >= 0 && search.wins(search.rootCells, immediate, search.rootPlayer)) {
+			return CompletableFuture.completedFuture(new Hint(immediate / width, immediate % width, 100));
+		}
+		if (immediate >= 0) {
+			search.root.children = new Node[] {new Node(immediate)};
+		}
+		return start(search, timeMillis).thenApply(best -> {
+			int visits = best.visits;
+			int score = visits == 0 ? 50 : (int) Math.round(best.score * 50.0 / visits);
+			return new Hint(best.cell / width, best.cell % width, score);
+		});
+	}
+
+	/**
+     * Starts the workers of a search on the pool's free threads, and returns
+     * the most visited root move once they are done or the deadline has
+     * passed.
+     */
+	private CompletableFuture<Node> start(Search search, long timeMillis) {
+		CompletableFuture<Node> result = new CompletableFuture<>();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeMillis);
+		int busy = pool.getActiveThreadCount() + pool.getQueuedSubmissionCount();
+		int workers = Math.max(1, Math.min(pool.getParallelism() - busy, search.playouts));
+		AtomicInteger running = new AtomicInteger(workers);
+		for (int i = 0; i < workers; i++) {
+			int quota = search.playouts / workers + (i < search.playouts % workers ? 1 : 0);
+			pool.execute(() -> {
+				search.run(deadline, quota, result);
+				if (running.decrementAndGet() == 0) {
+					result.complete(search.bestMove());
+				}
+			});
+		}
+		CompletableFuture.delayedExecutor(timeMillis, TimeUnit.MILLISECONDS, Runnable::run)
+				.execute(() -> result.complete(search.bestMove()));
+		return result;
+	}
+
+	/**
+     * The Node class holds the statistics of one move in the search tree.
+     */
+	private static final class Node {
+		private static final AtomicIntegerFieldUpdater<Node> VISITS =
+				AtomicIntegerFieldUpdater.newUpdater(Node.class, "visits");
+		private static final AtomicIntegerFieldUpdater<Node> SCORE =
+				AtomicIntegerFieldUpdater.newUpdater(Node.class, "score");
+		private static final AtomicReferenceFieldUpdater<Node, Node[]> CHILDREN =
+				AtomicReferenceFieldUpdater.newUpdater(Node.class, Node[].class, "children");
+
+		final int cell;
+		volatile int visits;
+		/** Half points won by the player who made this move: 2 per win, 1 per draw. */
+		volatile int score;
+		volatile Node[] children;
+
+		Node(int cell) {
+			this.cell = cell;
+		}
+	}
+
+	/**
+     * The Search class is one search: the root position and the shared tree.
+     */
+	private static final class Search {
+		static final int NO_MOVE = -2;
+
+		final int width;
+		final int height;
+		final int winLength;
+		final byte[] rootCells;
+		final byte rootPlayer;
+		final int rootEmpty;
+		final Node root = new Node(-1);
+		final int playouts;
+
+		Search(GameBoard board, int playouts) {
+			this.width = board.getWidth();
+			this.height = board.getHeight();
+			this.winLength = board.getWinLength();
+			this.rootCells = new byte[width * height];
+			int empty = 0;
+			for (int row = 0; row < height; row++) {
+				for (int col = 0; col < width; col++) {
+					String mark = board.getGrid(row, col);
+					byte cell = mark == null ? EMPTY : mark.equals("X") ? X : O;
+					rootCells[row * width + col] = cell;
+					if (cell == EMPTY) {
+						empty++;
+					}
+				}
+			}
+			this.rootEmpty = empty;
+			this.rootPlayer = board.getMoveCount() % 2 == 0 ? X : O;
+			this.playouts = Math.max(1, playouts);
+			root.children = expand(rootCells);
+		}
+
+		/**
+         * Returns the move to play without searching: none if the game is
+         * over, a move winning at once, a move stopping the opponent from
+         * winning at once, or the centre of an empty board.
+         */
+		int immediateMove() {
+			if (root.children.length == 0) {
+				return -1;
+			}
+			if (rootEmpty == rootCells.length) {
+				return (height / 2) * width + width / 2;
+			}
+			byte opponent = rootPlayer == X ? O : X;
+			int block = NO_MOVE;
+			for (Node child : root.children) {
+				if (wins(rootCells, child.cell, rootPlayer)) {
+					return child.cell;
+				}
+				if (block == NO_MOVE && wins(rootCells, child.cell, opponent)) {
+					block = child.cell;
+				}
+			}
+			return block;
+		}
+
+		/**
+         * Runs iterations until the deadline, the worker's share of the
+         * playout budget, or the delivery of the result.
+         *
+         * @param quota 	the number of playouts of this worker
+         */
+		void run(long deadline, int quota, CompletableFuture<Node> result) {
+			byte[] cells = new byte[rootCells.length];
+			int[] empties = new int[rootCells.length];
+			Node[] path = new Node[rootCells.length + 1];
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			int rootVisits = 0;
+			for (int done = 0; done < quota && !result.isDone() && System.nanoTime() < deadline; done++) {
+				iterate(cells, empties, path, random);
+				if (++rootVisits == ROOT_BATCH) {
+					Node.VISITS.addAndGet(root, rootVisits);
+					rootVisits = 0;
+				}
+			}
+			Node.VISITS.addAndGet(root, rootVisits);
+		}
+
+		/**
+         * Runs one iteration: selects a leaf with UCT, counting a virtual
+         * loss on every node passed, expands it once it has been visited
+         * often enough, plays out the game at random, and adds the outcome.
+         */
+		private void iterate(byte[] cells, int[] empties, Node[] path, ThreadLocalRandom random) {
+			System.arraycopy(rootCells, 0, cells, 0, cells.length);
+			int depth = 0;
+			byte player = rootPlayer;
+			byte winner = EMPTY;
+			Node node = root;
+			while (true) {
+				Node[] children = node.children;
+				if (children == null) {
+					if (node.visits < EXPAND_VISITS) {
+						break;
+					}
+					Node[] expanded = expand(cells);
+					children = Node.CHILDREN.compareAndSet(node, null, expanded) ? expanded : node.children;
+				}
+				if (children.length == 0) {
+					break;
+				}
+				node = select(node, children, random);
+				Node.VISITS.incrementAndGet(node);
+				path[depth++] = node;
+				cells[node.cell] = player;
+				if (wins(cells, node.cell, player)) {
+					winner = player;
+					break;
+				}
+				player = player == X ? O : X;
+			}
+
+			if (winner == EMPTY) {
+				winner = playout(cells, empties, player, random);
+			}
+
+			byte mover = rootPlayer;
+			for (int i = 0; i < depth; i++) {
+				int points = winner == EMPTY ? 1 : winner == mover ? 2 : 0;
+				if (points > 0) {
+					Node.SCORE.addAndGet(path[i], points);
+				}
+				mover = mover == X ? O : X;
+			}
+		}
+
+		/**
+         * Picks the child with the highest UCT value, trying unvisited
+         * children first, from a random starting point so that concurrent
+         * workers spread over them.
+         */
+		private Node select(Node parent, Node[] children, ThreadLocalRandom random) {
+			double logVisits = Math.log(Math.max(1, parent.visits));
+			int start = random.nextInt(children.length);
+			Node best = null;
+			double bestValue = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < children.length; i++) {
+				Node child = children[(start + i) % children.length];
+				int visits = child.visits;
+				if (visits == 0) {
+					return child;
+				}
+				double value = child.score / (2.0 * visits) + EXPLORATION * Math.sqrt(logVisits / visits);
+				if (value > bestValue) {
+					bestValue = value;
+					best = child;
+				}
+			}
+			return best;
+		}
+
+		/**
+         * Plays random moves until a player wins or the board is full.
+         *
+         * @return the winner, or EMPTY for a draw
+         */
+		private byte playout(byte[] cells, int[] empties, byte player, ThreadLocalRandom random) {
+			int count = 0;
+			for (int cell = 0; cell < cells.length; cell++) {
+				if (cells[cell] == EMPTY) {
+					empties[count++] = cell;
+				}
+			}
+			while (count > 0) {
+				int pick = random.nextInt(count);
+				int cell = empties[pick];
+				empties[pick] = empties[--count];
+				cells[cell] = player;
+				if (wins(cells, cell, player)) {
+					return player;
+				}
+				player = player == X ? O : X;
+			}
+			return EMPTY;
+		}
+
+		/**
+         * Creates a child for every empty cell next to a mark, or for every
+         * empty cell if the board is empty.
+         */
+		private Node[] expand(byte[] cells) {
+			boolean empty = true;
+			for (byte cell : cells) {
+				if (cell != EMPTY) {
+					empty = false;
+					break;
+				}
+			}
+			Node[] children = new Node[cells.length];
+			int count = 0;
+			for (int row = 0; row < height; row++) {
+				for (int col = 0; col < width; col++) {
+					int cell = row * width + col;
+					if (cells[cell] == EMPTY && (empty || hasNeighbour(cells, row, col))) {
+						children[count++] = new Node(cell);
+					}
+				}
+			}
+			return Arrays.copyOf(children, count);
+		}
+
+		private boolean hasNeighbour(byte[] cells, int row, int col) {
+			for (int r = Math.max(0, row - 1); r <= Math.min(height - 1, row + 1); r++) {
+				for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
+					if (cells[r * width + c] != EMPTY) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+         * Checks if a mark of the player at the cell completes a line,
+         * whether or not the mark has been placed yet.
+         */
+		boolean wins(byte[] cells, int cell, byte player) {
+			int row = cell / width;
+			int col = cell % width;
+			for (int[] direction : DIRECTIONS) {
+				int run = 1 + countRun(cells, row, col, direction[0], direction[1], player)
+						+ countRun(cells, row, col, -direction[0], -direction[1], player);
+				if (run >= winLength) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private int countRun(byte[] cells, int row, int col, int dRow, int dCol, byte player) {
+			int count = 0;
+			int r = row + dRow;
+			int c = col + dCol;
+			while (r >= 0 && r < height && c >= 0 && c < width && cells[r * width + c] == player) {
+				count++;
+				r += dRow;
+				c += dCol;
+			}
+			return count;
+		}
+
+		/**
+         * Returns the most visited move at the root, or a random candidate
+         * if no iteration has finished yet.
+         */
+		Node bestMove() {
+			Node[] children = root.children;
+			Node best = children[ThreadLocalRandom.current().nextInt(children.length)];
+			for (Node child : children) {
+				if (child.visits > best.visits) {
+					best = child;
+				}
+			}
+			return best;
+		}
+	}
+}
@@ -0,0 +1,400 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The NioServer class is a non-blocking alternative to Server. Accepted
+ * connections are spread over a small number of event loops, each of which
+ * multiplexes its channels with a single Selector, so the number of clients
+ * is bounded by file descriptors and memory rather than by threads. Lines
+ * received from a client are passed to the same GameSession used by Server.
+ */
+public class NioServer {
+	private static final int READ_BUFFER_SIZE = 4096;
+	private static final int MAX_GATHER = 64;
+
+	private ServerSocketChannel serverChannel;
+	private RoomRegistry rooms;
+	private EventLoop[] loops;
+
+	/**
+     * Constructs a NioServer with the specified server channel.
+     *
+     * @param serverChannel 	the bound channel to accept client connections from
+     * @param loopCount 		the number of event loop threads
+     */
+	public NioServer(ServerSocketChannel serverChannel, int loopCount) {
+		this(serverChannel, loopCount, new RoomRegistry());
+	}
+
+	/**
+     * Constructs a NioServer with the specified server channel and room
+     * registry.
+     *
+     * @param serverChannel 	the bound channel to accept client connections from
+     * @param loopCount 		the number of event loop threads
+     * @param rooms 			the registry of the server's game rooms
+     */
+	public NioServer(ServerSocketChannel serverChannel, int loopCount, RoomRegistry rooms) {
+		this.serverChannel = serverChannel;
+		this.rooms = rooms;
+		this.loops = new EventLoop[loopCount];
+	}
+
+	/**
+     * Starts the event loops and accepts client connections, handing each
+     * of them to the next event loop in turn.
+     *
+     * @throws IOException if a selector cannot be opened
+     */
+	public void start() throws IOException {
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop();
+			Thread thread = new Thread(loops[i], "nio-loop-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		int clientCount = 1;
+		while (true) {
+			try {
+				SocketChannel channel = serverChannel.accept();
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				loops[clientCount % loops.length].register(channel);
+				ServerMetrics.connectionAccepted();
+				Log.info("Connected to client {}", clientCount++);
+			} catch (IOException e) {
+				Log.warn("Accept failed: {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+     * The EventLoop class owns a Selector and performs all reads and writes
+     * of the channels registered with it.
+     */
+	private class EventLoop implements Runnable {
+		private final Selector selector;
+		private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+		private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+		private volatile Thread thread;
+
+		/**
+         * Constructs an EventLoop with a new Selector.
+         *
+         * @throws IOException if the selector cannot be opened
+         */
+		EventLoop() throws IOException {
+			this.selector = Selector.open();
+		}
+
+		/**
+         * Hands a newly accepted channel to this loop.
+         *
+         * @param channel 	the channel to register
+         */
+		void register(SocketChannel channel) {
+			pendingChannels.add(channel);
+			selector.wakeup();
+		}
+
+		/**
+         * Schedules a write of a connection's outbound queue on this loop.
+         *
+         * @param connection 	the connection with pending output
+         */
+		void requestWrite(Connection connection) {
+			pendingWrites.add(connection);
+			selector.wakeup();
+		}
+
+		/**
+         * Runs the select loop until the thread is terminated.
+         */
+		@Override
+		public void run() {
+			thread = Thread.currentThread();
+			while (true) {
+				try {
+					selector.select();
+					registerPending();
+					flushPending();
+
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						Connection connection = (Connection) key.attachment();
+						if (!key.isValid()) {
+							connection.close();
+							continue;
+						}
+						if (key.isReadable()) {
+							connection.read(readBuffer);
+						}
+						if (key.isValid() && key.isWritable()) {
+							connection.write();
+						}
+					}
+				} catch (IOException e) {
+					Log.warn("Event loop: {}", e.getMessage());
+				}
+			}
+		}
+
+		private void registerPending() {
+			SocketChannel channel;
+			while ((channel = pendingChannels.poll()) != null) {
+				try {
+					SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+					Connection connection = new Connection(this, channel, key);
+					key.attach(connection);
+					ServerMetrics.connectionOpened();
+					Log.info("Connected: {}", channel.getRemoteAddress());
+				} catch (IOException e) {
+					Log.warn("Connection: {}", e.getMessage());
+				}
+			}
+		}
+
+		private void flushPending() {
+			Connection connection;
+			while ((connection = pendingWrites.poll()) != null) {
+				connection.write();
+			}
+		}
+	}
+
+	/**
+     * The Connection class frames the bytes of one channel into lines and
+     * buffers outbound messages until the channel can accept them.
+     */
+	private class Connection implements ClientConnection {
+		private final EventLoop loop;
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private final GameSession session;
+		private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger outboundSize = new AtomicInteger();
+		private volatile boolean overflowed;
+		private byte[] line = new byte[BinaryProtocol.MAX_FRAME_LENGTH];
+		private int lineLength;
+		private boolean binary;
+		private volatile boolean binaryOutput;
+		private int frameLength;
+		private int headerBytes;
+		private volatile boolean closed;
+		private volatile boolean closeRequested;
+
+		/**
+         * Constructs a Connection for a registered channel.
+         *
+         * @param loop 		the event loop owning the channel
+         * @param channel 	the client channel
+         * @param key 		the selection key of the channel
+         */
+		Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+			this.loop = loop;
+			this.channel = channel;
+			this.key = key;
+			this.session = new GameSession(rooms, this);
+		}
+
+		/**
+         * Reads the available bytes and dispatches every complete line, or
+         * every complete frame once the client uses the binary protocol.
+         *
+         * @param buffer 	the loop's shared read buffer
+         */
+		void read(ByteBuffer buffer) {
+			try {
+				buffer.clear();
+				int count = channel.read(buffer);
+				if (count < 0) {
+					close();
+					return;
+				}
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					byte b = buffer.get();
+					if (binary) {
+						readFrameByte(b);
+					} else if (b == '\n') {
+						dispatchLine();
+					} else if (b != '\r') {
+						appendByte(b);
+					}
+				}
+			} catch (Exception e) {
+				Log.warn("Connection: {}", e.getMessage());
+				close();
+			}
+		}
+
+		private void appendByte(byte b) throws IOException {
+			if (lineLength == line.length) {
+				if (line.length >= CommandLine.MAX_LENGTH) {
+					throw new IOException("Line too long from " + channel.getRemoteAddress());
+				}
+				line = Arrays.copyOf(line, line.length * 2);
+			}
+			line[lineLength++] = b;
+		}
+
+		private void readFrameByte(byte b) throws IOException {
+			if (headerBytes < 2) {
+				frameLength = (frameLength << 8) | (b & 0xff);
+				if (++headerBytes == 2 && (frameLength == 0 || frameLength > BinaryProtocol.MAX_FRAME_LENGTH)) {
+					throw new IOException("Invalid frame length " + frameLength + " from " + channel.getRemoteAddress());
+				}
+				return;
+			}
+			line[lineLength++] = b;
+			if (lineLength == frameLength) {
+				int length = lineLength;
+				lineLength = 0;
+				frameLength = 0;
+				headerBytes = 0;
+				session.handleFrame(line, length);
+			}
+		}
+
+		private void dispatchLine() {
+			int length = lineLength;
+			lineLength = 0;
+			session.handle(line, length);
+		}
+
+		/**
+         * Queues a message for this client until the next flush(). May be
+         * called from any thread. A client with more
+         * than OutboundQueue.DEFAULT_CAPACITY unwritten messages is a slow
+         * consumer, and its loop disconnects it.
+         *
+         * @param message 	the message to send
+         */
+		@Override
+		public void send(Message message) {
+			if (closed || overflowed) {
+				return;
+			}
+			if (outboundSize.incrementAndGet() > OutboundQueue.DEFAULT_CAPACITY) {
+				overflowed = true;
+			} else {
+				outbound.add(ByteBuffer.wrap(binaryOutput ? message.getFrame() : message.getTextBytes()));
+				ServerMetrics.outboundQueued(1);
+			}
+		}
+
+		/**
+         * Hands the queued messages to the owning event loop, which writes
+         * them on its next pass.
+         */
+		@Override
+		public void flush() {
+			if (!outbound.isEmpty() || overflowed) {
+				loop.requestWrite(this);
+			}
+		}
+
+		/**
+         * Switches this client to the binary protocol. Called on the loop
+         * thread while the handshake line is dispatched, so the bytes after
+         * it in the read buffer are already read as frames.
+         */
+		@Override
+		public void switchToBinary() {
+			binary = true;
+			binaryOutput = true;
+		}
+
+		/**
+         * Writes as much queued output as the channel accepts, and waits for
+         * the channel to become writable again if some output is left. Up to
+         * MAX_GATHER queued messages are written with a single gathering write.
+         */
+		void write() {
+			if (closed) {
+				return;
+			}
+			if (closeRequested) {
+				close();
+				return;
+			}
+			if (overflowed) {
+				Log.warn("Disconnecting slow consumer {}", channel.socket().getRemoteSocketAddress());
+				close();
+				return;
+			}
+			ByteBuffer[] gather = loop.gather;
+			try {
+				while (!outbound.isEmpty()) {
+					int count = 0;
+					for (ByteBuffer buffer : outbound) {
+						gather[count++] = buffer;
+						if (count == gather.length) {
+							break;
+						}
+					}
+					channel.write(gather, 0, count);
+
+					int written = 0;
+					while (written < count && !gather[written].hasRemaining()) {
+						outbound.poll();
+						outboundSize.decrementAndGet();
+						ServerMetrics.outboundQueued(-1);
+						written++;
+					}
+					Arrays.fill(gather, 0, count, null);
+					WriteStats.recordWrite(written);
+					if (written < count) {
+						key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						return;
+					}
+				}
+				key.interestOps(SelectionKey.OP_READ);
+			} catch (Exception e) {
+				Log.warn("Connection: {}", e.getMessage());
+				close();
+			}
+		}
+
+		/**
+         * Closes the channel and releases the client's game session. Called
+         * from another thread, e.g. when a session is resumed on a new
+         * connection, it asks the loop to close the channel.
+         */
+		@Override
+		public void close() {
+			if (Thread.currentThread() != loop.thread) {
+				closeRequested = true;
+				loop.requestWrite(this);
+				return;
+			}
+			if (closed) {
+				return;
+			}
+			closed = true;
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				Log.warn("Connection: {}", e.getMessage());
+			}
+			while (outbound.poll() != null) {
+				ServerMetrics.outboundQueued(-1);
+			}
+			ServerMetrics.connectionClosed();
+			session.disconnect();
+		}
+	}
+}
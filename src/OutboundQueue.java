@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The OutboundQueue class decouples sending a message to a client from
+ * writing it to the client's socket. Messages are queued without blocking,
+ * and a writer task on a separate executor drains the queue, so a slow or
+ * stalled client never delays the thread that sent the message.
+ *
+ * Queued messages are only written once flush() is called, e.g. after a
+ * room has run a batch of commands. The writer task then writes all of them
+ * into a buffered stream and flushes it once, so the messages produced by
+ * one command normally reach the socket in a single write.
+ *
+ * The queue is bounded. A client that falls more than the capacity behind
+ * is considered a slow consumer and is disconnected: dropping or merging
+ * messages would leave its copy of the game out of sync with the room.
+ */
+public class OutboundQueue {
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final OutputStream output;
+	private final Executor executor;
+	private final int capacity;
+	private final Runnable onOverflow;
+	private final Queue<byte[]> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private volatile boolean closed;
+
+	/**
+     * Constructs an OutboundQueue writing to the specified stream.
+     *
+     * @param output 		the output stream of the client's socket
+     * @param executor 		the executor running the writer task
+     * @param capacity 		the maximum number of queued messages
+     * @param onOverflow 	the action disconnecting the client when the queue is
+     *                      full or the socket cannot be written
+     */
+	public OutboundQueue(OutputStream output, Executor executor, int capacity, Runnable onOverflow) {
+		this.output = output;
+		this.executor = executor;
+		this.capacity = capacity;
+		this.onOverflow = onOverflow;
+	}
+
+	/**
+     * Queues an encoded message for the client until the next flush().
+     * Never blocks.
+     *
+     * @param message 	the encoded message, which must not be modified afterwards
+     * @return true if the message was queued, false if the queue is closed
+     *         or the client has been disconnected as a slow consumer
+     */
+	public boolean offer(byte[] message) {
+		if (closed) {
+			return false;
+		}
+		if (size.incrementAndGet() > capacity) {
+			size.decrementAndGet();
+			close();
+			onOverflow.run();
+			return false;
+		}
+		queue.add(message);
+		ServerMetrics.outboundQueued(1);
+		return true;
+	}
+
+	/**
+     * Schedules the writer task to write every queued message. Never blocks.
+     */
+	public void flush() {
+		if (!queue.isEmpty() && draining.compareAndSet(false, true)) {
+			executor.execute(this::drain);
+		}
+	}
+
+	/**
+     * Writes queued messages until the queue is empty, flushing the stream
+     * once at the end.
+     */
+	private void drain() {
+		try {
+			int count = 0;
+			byte[] message;
+			while ((message = queue.poll()) != null) {
+				size.decrementAndGet();
+				ServerMetrics.outboundQueued(-1);
+				if (!closed) {
+					output.write(message);
+					count++;
+				}
+			}
+			if (count > 0) {
+				output.flush();
+				WriteStats.recordWrite(count);
+			}
+		} catch (IOException e) {
+			close();
+			onOverflow.run();
+		} finally {
+			draining.set(false);
+			if (!queue.isEmpty() && draining.compareAndSet(false, true)) {
+				executor.execute(this::drain);
+			}
+		}
+	}
+
+	/**
+     * Returns the number of messages waiting to be written.
+     *
+     * @return the queue depth
+     */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+     * Stops accepting messages and discards the ones not yet written.
+     */
+	public void close() {
+		closed = true;
+		while (queue.poll() != null) {
+			size.decrementAndGet();
+			ServerMetrics.outboundQueued(-1);
+		}
+	}
+}
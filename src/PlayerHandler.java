@@ -1,28 +1,38 @@
 import java.awt.event.*;
-import java.io.*;
-import java.net.Socket;
-import java.net.UnknownHostException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import javax.swing.*;
 
 /**
  * The PlayerHandler class manages the communication between the client and the server
  * for a Tic Tac Toe game. It handles player actions, updates the game view, and
  * manages the game state.
+ *
+ * The protocol itself is handled by a GameClient, to which the view is one
+ * subscriber: the client's events are raised on its I/O thread and handed
+ * over to the Swing event thread before they touch the view.
+ *
+ * If the connection drops during a game, the handler reconnects and
+ * resumes the session on a new client, so the game goes on where it was.
  */
 public class PlayerHandler {
-	
+	private static final InetSocketAddress SERVER = new InetSocketAddress("127.0.0.1", 5001);
+	private static final int RECONNECT_ATTEMPTS = 10;
+	private static final long RECONNECT_DELAY_MILLIS = 1000;
+
 	private View currentView;
 	private String player;
 	private int playerCount = 0;
+	private int boardWidth = 3;
+	private int boardHeight = 3;
+	private int winLength = 3;
 	
 	private ActionListener submitListener;
 	private ActionListener boardListener;
 	private ActionListener exitListener;
 	
-	private Socket socket;
-	private Scanner in;
-	private PrintWriter out;
+	private ClientLoop loop;
+	private volatile GameClient client;
 	
 	/**
      * Constructs a PlayerHandler with the specified game view.
@@ -33,24 +43,39 @@ public class PlayerHandler {
 		this.currentView = view;
 	}
 	
+	/**
+     * Constructs a PlayerHandler that asks the server for a game on a board
+     * of the specified size.
+     *
+     * @param view 			the game view associated with this PlayerHandler
+     * @param width 		the number of columns of the board
+     * @param height 		the number of rows of the board
+     * @param winLength 	the number of marks in a row needed to win
+     */
+	public PlayerHandler(View view, int width, int height, int winLength) {
+		this(view);
+		this.boardWidth = width;
+		this.boardHeight = height;
+		this.winLength = winLength;
+	}
+	
 	/**
      * Starts the connection to the game server and sets up action listeners
      * for player interactions.
      */
 	public void start() {
 		try {
-			this.socket = new Socket("127.0.0.1", 5001);
-			this.in = new Scanner(socket.getInputStream());
-			this.out = new PrintWriter(socket.getOutputStream(), true);
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
+			this.loop = new ClientLoop().start("client-io");
+			this.client = new GameClient(loop, boardWidth, boardHeight, winLength);
+			this.client.addListener(new ViewUpdater());
+			this.client.connect(SERVER, true);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		
 		submitListener = new ActionListener() {
 			public void actionPerformed(ActionEvent actionEvent) {
-				out.println("name");
+				client.join();
 			}
 		};
 		currentView.getSubmitButton().addActionListener(submitListener);
@@ -59,16 +84,37 @@ public class PlayerHandler {
 		
 		exitListener = new ActionListener() {
 			public void actionPerformed(ActionEvent actionEvent) {
-				out.println("exit " + player);
+				client.exit();
 			}
 		};
 		currentView.getControlBar().getExitButton().addActionListener(exitListener);
 		
-		Thread handler = new ClientHandler(socket);
-		handler.start();
-		
 	}
 	
+	/**
+     * Resumes the session of the client on a new connection after its
+     * connection dropped, retrying for a while.
+     */
+	private void reconnect() {
+		GameClient previous = client;
+		for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS; attempt++) {
+			try {
+				Thread.sleep(RECONNECT_DELAY_MILLIS);
+				GameClient resumed = new GameClient(loop, boardWidth, boardHeight, winLength);
+				resumed.addListener(new ViewUpdater());
+				resumed.connect(SERVER, true);
+				client = resumed;
+				resumed.resume(previous);
+				return;
+			} catch (IOException e) {
+				System.out.println("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+		SwingUtilities.invokeLater(() -> currentView.updateMessageTitle("Connection to the server lost."));
+	}
+
 	/**
      * Creates an ActionListener for handling board button actions.
      *
@@ -80,8 +126,8 @@ public class PlayerHandler {
 				JButton clickedButton = (JButton) actionEvent.getSource();
 				int row = -1;
 				int col = -1;
-				for (int i = 0; i < 3; i++) {
-					for (int j = 0; j < 3; j++) {
+				for (int i = 0; i < currentView.getBoardHeight(); i++) {
+					for (int j = 0; j < currentView.getBoardWidth(); j++) {
 						if (currentView.getBoardButton(i, j) == clickedButton) {
 							row = i;
 							col = j;
@@ -90,14 +136,14 @@ public class PlayerHandler {
 					}
 				}
 				if (row != -1 && col != -1 && currentView.getTurn() == player) {
-					out.println("move " + player + " " + row + " " + col);
+					client.move(row, col);
 					currentView.removeButtonAl(row, col);
 				}
 			}
 		};
 		
-		for (int i = 0; i < 3; i++) {
-			for (int j = 0; j < 3; j++) {
+		for (int i = 0; i < currentView.getBoardHeight(); i++) {
+			for (int j = 0; j < currentView.getBoardWidth(); j++) {
 				JButton button = currentView.getBoardButton(i, j);
 	            for (ActionListener al : button.getActionListeners()) {
 	                button.removeActionListener(al);
@@ -107,148 +153,129 @@ public class PlayerHandler {
 		}
 		return boardButtonListener;
 	}
-
+	
 	/**
-     * The ClientHandler class is a thread that listens for messages from the server
-     * and updates the game view accordingly.
+     * The ViewUpdater class applies the events of the GameClient to the game
+     * view, on the Swing event thread.
      */
-	class ClientHandler extends Thread {
-		private Socket socket;
-		private View view;
+	private class ViewUpdater implements GameListener {
 
-		/**
-         * Constructs a ClientHandler with the specified socket and game view.
-         *
-         * @param socket the socket for the client connection
-         */
-		public ClientHandler(Socket socket) {
-			this.socket = socket;
-			this.view = currentView;
+		@Override
+		public void onBoard(int width, int height, int winLength) {
+			SwingUtilities.invokeLater(() -> {
+				currentView.resizeBoard(width, height);
+				boardListener = addButtonAl();
+			});
 		}
 
-		/**
-         * Runs the thread to listen for messages from the server.
-         */
 		@Override
-		public void run() {
-			try {
-				readFromServer();
-			} catch (Exception e) {
-				e.printStackTrace();
+		public void onJoined(String joinedAs) {
+			SwingUtilities.invokeLater(() -> {
+				currentView.setPlayer(joinedAs);
+				player = joinedAs;
+				currentView.changeNameUI();
+				if (joinedAs.equals("O")) {
+					currentView.updateMessageTitle("Waiting for your opponent to move");
+				}
+			});
+		}
+
+		@Override
+		public void onOpponentJoined() {
+			SwingUtilities.invokeLater(() -> {
+				currentView.updateTurn("X");
+				currentView.updateMessageTitle("Player 2 has joined. Your turn to move");
+			});
+		}
+
+		@Override
+		public void onMoved(String playerMoved, int row, int col) {
+			SwingUtilities.invokeLater(() -> {
+				currentView.playerMove(playerMoved, row, col);
+				String nextPlayer = (playerMoved.equals("X") ? "O" : "X");
+				currentView.updateTurn(nextPlayer);
+				
+				if (player.equals(playerMoved)) {
+					currentView.updateMessageTitle("Vaild move, wait for your opponent.");
+				}
+				else {
+					currentView.updateMessageTitle("Your opponent has moved, now is your turn.");
+				}
+			});
+		}
+
+		@Override
+		public void onOpponentLeft() {
+			SwingUtilities.invokeLater(() -> {
+				currentView.disabledBoard();
+				playerCount = 0;
+				currentView.playerLeft();
+			});
+		}
+
+		@Override
+		public void onSession(long token) {
+			if (token == 0) {
+				SwingUtilities.invokeLater(() -> {
+					currentView.disabledBoard();
+					currentView.updateMessageTitle("Your game could not be resumed.");
+				});
 			}
 		}
-		
-		/**
-         * Reads messages from the server and updates the game view accordingly.
-         *
-         * @throws Exception if an error occurs while reading from the server
-         */
-	    public void readFromServer() throws Exception {
-			try {
-				while (in.hasNextLine()) {
-					var command = in.nextLine();
-//					System.out.println("Client Received: " + command);
-					
-					if (command.startsWith("P1 joined")) {
-						this.view.setPlayer("X");
-						player = "X";
-						this.view.changeNameUI();
-					}
-					else if (command.startsWith("P2 joined")) {
-						if (player == "X") {
-							this.view.updateTurn("X");
-							this.view.updateMessageTitle("Player 2 has joined. Your turn to move");
-						}
-						else {
-							this.view.setPlayer("O");
-							player = "O";
-							this.view.changeNameUI();
-							this.view.updateMessageTitle("Waiting for your opponent to move");
-						}
-					}
-					
-					if (command.startsWith("move")) {
-						String[] commands = command.split(" ");
-						
-						String playerMoved = commands[1];
-						int row = Integer.parseInt(commands[2]);
-						int col = Integer.parseInt(commands[3]);
-						
-						this.view.playerMove(playerMoved, row, col);
-						String nextPlayer = (playerMoved.equals("X") ? "O" : "X");
-						this.view.updateTurn(nextPlayer);
-						
-						if (player.equals(playerMoved)) {
-							this.view.updateMessageTitle("Vaild move, wait for your opponent.");
-						}
-						else {
-							this.view.updateMessageTitle("Your opponent has moved, now is your turn.");
-						}
-					}
+
+		@Override
+		public void onClosed(Exception error) {
+			if (error == null) {
+				System.exit(0);
+			} else if (client.getSessionToken() != 0) {
+				SwingUtilities.invokeLater(() -> currentView.updateMessageTitle("Connection lost, reconnecting..."));
+				new Thread(PlayerHandler.this::reconnect, "client-reconnect").start();
+			} else {
+				error.printStackTrace();
+			}
+		}
+
+		@Override
+		public void onRestartRequested(String playerName) {
+			SwingUtilities.invokeLater(() -> {
+				playerCount++;
 				
-					
-					if (command.startsWith("exit")) {
-						String[] msg = command.split(" ");
-						String playerName = msg[1];
-						this.view.disabledBoard();
-						playerCount = 0;
-						if (!player.equals(playerName)) {
-							this.view.playerLeft();
-						} else {
-							System.exit(0);
-						}
-					}
-					
-					if (command.startsWith("restart")) {
-						String[] msg = command.split(" ");
-						String playerName = msg[1];
-						playerCount++;
-						
-						if (playerCount == 1) {
-							this.view.updateMessageTitle("Wait for your opponent to continue.");
-						} else if (playerCount == 2) {
-							out.println("ready");
-							playerCount = 0;
+				if (playerCount == 1) {
+					currentView.updateMessageTitle("Wait for your opponent to continue.");
+				} else if (playerCount == 2) {
+					playerCount = 0;
+				}
+			});
+		}
 
-						}
-						
-					}
-					
-					if (command.startsWith("start new game")) {
-						this.view.updateTurn("X");
-						this.view.enabledBoard();
-						if (player == "X") {
-							this.view.updateMessageTitle("Your turn to move");
-						} else {
-							this.view.updateMessageTitle("Waiting for your opponent to move");
-						}
-					}
-					
-					
-					if (command.startsWith("result")) {
-						this.view.updateTurn("Stop");
-						String[] msg = command.split(" ");
-						String result = msg[1];
-						
-						boolean isRestart = this.view.result(result);
-						if (isRestart) {
-							out.println("restart " + player);
-							this.view.resetBoard();
-							boardListener = addButtonAl();
-							this.view.updateScore();
-						} else {
-							out.println("exit " + player);
-						}
-					}
-						
-					out.flush();
-					
+		@Override
+		public void onNewGame() {
+			SwingUtilities.invokeLater(() -> {
+				currentView.updateTurn("X");
+				currentView.enabledBoard();
+				if (player == "X") {
+					currentView.updateMessageTitle("Your turn to move");
+				} else {
+					currentView.updateMessageTitle("Waiting for your opponent to move");
 				}
-			} catch (Exception e) {
-				e.printStackTrace();
-			} finally {
-				socket.close();
-			}
-	    }
+			});
+		}
+
+		@Override
+		public void onResult(String result) {
+			SwingUtilities.invokeLater(() -> {
+				currentView.updateTurn("Stop");
+				
+				boolean isRestart = currentView.result(result);
+				if (isRestart) {
+					client.restart();
+					currentView.resetBoard();
+					boardListener = addButtonAl();
+					currentView.updateScore();
+				} else {
+					client.exit();
+				}
+			});
+		}
 	}
-}
\ No newline at end of file
+}
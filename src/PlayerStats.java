@@ -0,0 +1,400 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The PlayerStats class keeps the wins, losses and draws of every named
+ * player across games, and a leaderboard of the LEADERBOARD_SIZE players
+ * with the most wins.
+ *
+ * Every named player also has an Elo rating, from INITIAL_RATING, which the
+ * Matchmaker pairs players by. After each game the ratings of both players
+ * move by up to ELO_K points, by how much the result differs from the one
+ * their ratings predicted. An anonymous player counts as a new player.
+ *
+ * The totals are LongAdders, so the rooms of many threads record results
+ * without contending on a shared counter. The leaderboard is updated
+ * incrementally as results come in: since the totals only grow, a player
+ * can only enter it by passing the last of the leaders, so a win is checked
+ * against that threshold with one volatile read, and only a win that
+ * changes the leaderboard sorts a player into it, in O(K). Reading the
+ * leaderboard copies its K entries and never sorts the other players.
+ *
+ * The totals and ratings are written to the file given by the system
+ * property "stats.file" (default "player-stats.txt"; empty to keep them in
+ * memory only) every SNAPSHOT_MILLIS, read from "stats.snapshot" (default
+ * 60000), and when the server stops, and read back when the server starts. A
+ * snapshot is written to a temporary file that then replaces the previous
+ * one, so a crash never leaves a partial file. The leaderboard size is read
+ * from "stats.top" (default 10, at most 255).
+ */
+public class PlayerStats {
+	public static final int MAX_NAME_LENGTH = 32;
+	public static final int LEADERBOARD_SIZE = Math.max(1, Math.min(255, Integer.getInteger("stats.top", 10)));
+	public static final long SNAPSHOT_MILLIS = Long.getLong("stats.snapshot", 60_000);
+	public static final int INITIAL_RATING = 1200;
+	public static final int ELO_K = 32;
+	public static final PlayerStats DISABLED = new PlayerStats(null, false);
+
+	private final ConcurrentHashMap<String, Totals> players = new ConcurrentHashMap<>();
+	private final Totals[] leaders = new Totals[LEADERBOARD_SIZE];
+	private final long[] leaderWins = new long[LEADERBOARD_SIZE];
+	private int leaderCount;
+	private volatile long threshold;
+	private final LongAdder updates = new LongAdder();
+	private final Object snapshotLock = new Object();
+	private long snapshotUpdates;
+	private final boolean enabled;
+	private final Path file;
+
+	/**
+     * The Totals class holds the results of one player.
+     */
+	public static final class Totals {
+		private final String name;
+		private final LongAdder wins = new LongAdder();
+		private final LongAdder losses = new LongAdder();
+		private final LongAdder draws = new LongAdder();
+		private final AtomicInteger rating = new AtomicInteger(INITIAL_RATING);
+		private volatile boolean leader;
+
+		private Totals(String name) {
+			this.name = name;
+		}
+
+		/**
+         * Returns the name of the player.
+         *
+         * @return the name
+         */
+		public String getName() {
+			return name;
+		}
+
+		/**
+         * Returns the number of games the player has won.
+         *
+         * @return the wins
+         */
+		public long getWins() {
+			return wins.sum();
+		}
+
+		/**
+         * Returns the number of games the player has lost.
+         *
+         * @return the losses
+         */
+		public long getLosses() {
+			return losses.sum();
+		}
+
+		/**
+         * Returns the number of games of the player that ended in a draw.
+         *
+         * @return the draws
+         */
+		public long getDraws() {
+			return draws.sum();
+		}
+
+		/**
+         * Returns the Elo rating of the player.
+         *
+         * @return the rating
+         */
+		public int getRating() {
+			return rating.get();
+		}
+	}
+
+	/**
+     * Constructs a PlayerStats that keeps its totals in memory, and in the
+     * specified file if it is not null.
+     *
+     * @param file 		the snapshot file, or null
+     * @param enabled 	false for a PlayerStats that records nothing
+     */
+	private PlayerStats(Path file, boolean enabled) {
+		this.file = file;
+		this.enabled = enabled;
+	}
+
+	/**
+     * Opens the statistics configured by the system property "stats.file",
+     * loading its last snapshot and snapshotting periodically from now on.
+     * If the file cannot be read, the server starts with empty statistics.
+     *
+     * @return the statistics
+     */
+	public static PlayerStats open() {
+		String name = System.getProperty("stats.file", "player-stats.txt");
+		PlayerStats stats = new PlayerStats(name.isEmpty() ? null : Path.of(name), true);
+		if (stats.file != null) {
+			try {
+				stats.load();
+			} catch (IOException | RuntimeException e) {
+				Log.warn("Player statistics unavailable: {}", e.getMessage());
+			}
+			ScheduledExecutorService snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "stats-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+			snapshotter.scheduleWithFixedDelay(stats::snapshot, SNAPSHOT_MILLIS, SNAPSHOT_MILLIS, TimeUnit.MILLISECONDS);
+			Runtime.getRuntime().addShutdownHook(new Thread(stats::snapshot, "stats-snapshot"));
+		}
+		return stats;
+	}
+
+	/**
+     * Checks if a name can be used as a player's name: 1 to MAX_NAME_LENGTH
+     * ASCII letters, digits, dots, dashes or underscores.
+     *
+     * @param name 	the name to check
+     * @return true if the name is valid, false otherwise
+     */
+	public static boolean isValidName(String name) {
+		if (name == null || name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-' || c == '_')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+     * Records the result of a game and updates the ratings of its players.
+     * Players without a name are not counted.
+     *
+     * @param playerX 	the name of player X, or null
+     * @param playerO 	the name of player O, or null
+     * @param result 	"X" or "O" for the winner, or "DRAW"
+     */
+	public void recordResult(String playerX, String playerO, String result) {
+		if (!enabled || (playerX == null && playerO == null)) {
+			return;
+		}
+		Totals x = playerX != null ? totals(playerX) : null;
+		Totals o = playerO != null ? totals(playerO) : null;
+		if (result.equals("X")) {
+			win(x);
+			lose(o);
+			rate(x, o, 1);
+		} else if (result.equals("O")) {
+			win(o);
+			lose(x);
+			rate(x, o, 0);
+		} else if (result.equals("DRAW")) {
+			draw(x);
+			draw(o);
+			rate(x, o, 0.5);
+		}
+	}
+
+	/**
+     * Returns the Elo rating of a player.
+     *
+     * @param name 	the name of the player, or null for an anonymous player
+     * @return the rating, or INITIAL_RATING for a player without results
+     */
+	public int getRating(String name) {
+		Totals totals = name != null ? players.get(name) : null;
+		return totals != null ? totals.getRating() : INITIAL_RATING;
+	}
+
+	private Totals totals(String name) {
+		Totals totals = players.get(name);
+		return totals != null ? totals : players.computeIfAbsent(name, Totals::new);
+	}
+
+	private void win(Totals totals) {
+		if (totals != null) {
+			totals.wins.increment();
+			updates.increment();
+			if (totals.leader || totals.getWins() > threshold) {
+				rank(totals);
+			}
+		}
+	}
+
+	private void lose(Totals totals) {
+		if (totals != null) {
+			totals.losses.increment();
+			updates.increment();
+		}
+	}
+
+	private void draw(Totals totals) {
+		if (totals != null) {
+			totals.draws.increment();
+			updates.increment();
+		}
+	}
+
+	/**
+     * Moves the ratings of both players of a game by the same number of
+     * points, without locking: a game of the same player finishing at the
+     * same time may read a rating just before it changes, which only
+     * shifts the size of the update by a fraction of a point.
+     *
+     * @param x 		the totals of player X, or null if anonymous
+     * @param o 		the totals of player O, or null if anonymous
+     * @param scoreX 	1 if X won, 0.5 for a draw, 0 if O won
+     */
+	private static void rate(Totals x, Totals o, double scoreX) {
+		int ratingX = x != null ? x.getRating() : INITIAL_RATING;
+		int ratingO = o != null ? o.getRating() : INITIAL_RATING;
+		double expectedX = 1 / (1 + Math.pow(10, (ratingO - ratingX) / 400.0));
+		int delta = (int) Math.round(ELO_K * (scoreX - expectedX));
+		if (x != null) {
+			x.rating.addAndGet(delta);
+		}
+		if (o != null) {
+			o.rating.addAndGet(-delta);
+		}
+	}
+
+	/**
+     * Sorts a player whose wins have grown into the leaderboard, if they
+     * are enough to be on it.
+     */
+	private synchronized void rank(Totals totals) {
+		long wins = totals.getWins();
+		int i;
+		if (totals.leader) {
+			i = 0;
+			while (leaders[i] != totals) {
+				i++;
+			}
+			if (wins <= leaderWins[i]) {
+				return;
+			}
+		} else if (leaderCount < LEADERBOARD_SIZE) {
+			i = leaderCount++;
+		} else if (wins > leaderWins[LEADERBOARD_SIZE - 1]) {
+			i = LEADERBOARD_SIZE - 1;
+			leaders[i].leader = false;
+		} else {
+			return;
+		}
+		totals.leader = true;
+		for (; i > 0 && leaderWins[i - 1] < wins; i--) {
+			leaders[i] = leaders[i - 1];
+			leaderWins[i] = leaderWins[i - 1];
+		}
+		leaders[i] = totals;
+		leaderWins[i] = wins;
+		threshold = leaderCount == LEADERBOARD_SIZE ? leaderWins[LEADERBOARD_SIZE - 1] : 0;
+	}
+
+	/**
+     * Returns the players with the most wins, best first.
+     *
+     * @return at most LEADERBOARD_SIZE players
+     */
+	public synchronized List<Totals> getLeaderboard() {
+		List<Totals> leaderboard = new ArrayList<>(leaderCount);
+		for (int i = 0; i < leaderCount; i++) {
+			leaderboard.add(leaders[i]);
+		}
+		return leaderboard;
+	}
+
+	/**
+     * Returns the number of players with recorded results.
+     *
+     * @return the number of players
+     */
+	public int getPlayerCount() {
+		return players.size();
+	}
+
+	/**
+     * Writes the totals of every player to the snapshot file, unless
+     * nothing was recorded since the last snapshot. The totals are copied
+     * first and the file is written under a lock of its own, so recording
+     * results, ranking and reading the leaderboard never wait on the disk.
+     */
+	void snapshot() {
+		if (file == null) {
+			return;
+		}
+		synchronized (snapshotLock) {
+			long recorded = updates.sum();
+			if (recorded == snapshotUpdates) {
+				return;
+			}
+			List<String> lines = new ArrayList<>(players.size());
+			for (Totals totals : players.values()) {
+				lines.add(totals.name + " " + totals.getWins() + " " + totals.getLosses() + " " + totals.getDraws()
+						+ " " + totals.getRating());
+			}
+			Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+			try {
+				try (BufferedWriter out = Files.newBufferedWriter(temp)) {
+					for (String line : lines) {
+						out.write(line);
+						out.newLine();
+					}
+				}
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				snapshotUpdates = recorded;
+				Log.debug("Snapshot of {} players written", lines.size());
+			} catch (IOException e) {
+				Log.warn("Player statistics snapshot failed: {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+     * Reads the totals of the last snapshot and ranks them. Lines that
+     * cannot be read are skipped.
+     */
+	private void load() throws IOException {
+		try (BufferedReader in = Files.newBufferedReader(file)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length < 4 || fields.length > 5 || !isValidName(fields[0])) {
+					continue;
+				}
+				try {
+					long wins = Long.parseLong(fields[1]);
+					long losses = Long.parseLong(fields[2]);
+					long draws = Long.parseLong(fields[3]);
+					int rating = fields.length == 5 ? Integer.parseInt(fields[4]) : INITIAL_RATING;
+					Totals totals = totals(fields[0]);
+					totals.rating.set(rating);
+					totals.wins.add(wins);
+					totals.losses.add(losses);
+					totals.draws.add(draws);
+					if (totals.getWins() > threshold) {
+						rank(totals);
+					}
+				} catch (NumberFormatException e) {
+					Log.warn("Skipping player statistics line: {}", line);
+				}
+			}
+		} catch (NoSuchFileException e) {
+			return;
+		}
+		Log.info("Loaded statistics of {} players", players.size());
+	}
+}
@@ -0,0 +1,411 @@
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The RoomRegistry class keeps track of all game rooms hosted by the server
+ * and seats arriving players. Every joining player waits in the
+ * Matchmaker's queue until it is paired with a player of a similar rating
+ * who asked for the same board size, and a new room is opened for them.
+ *
+ * A player still waiting for an opponent after BOT_DELAY_MILLIS is given a
+ * BotPlayer instead. The delay is read from the system property
+ * "bot.delay" (default 10000, negative to disable bots) and the bot's
+ * difficulty from "bot.difficulty" (default perfect).
+ *
+ * Every seated player is given a session token. A player whose connection
+ * drops keeps its seat for RESUME_GRACE_MILLIS, read from the system
+ * property "session.grace" (default 30000), during which it can resume the
+ * session with its token on a new connection.
+ *
+ * The results of named players are counted in the server's PlayerStats.
+ *
+ * The rooms record their games in a Journal. When the registry is created,
+ * the games that were in progress when the journal was last written are
+ * restored into rooms with their original ids. A restored room is not
+ * open to joining players: only its original players can take their seats
+ * again, by resuming their sessions with the tokens the journal recorded,
+ * and a bot that played in it is seated again. A restored seat that is not
+ * taken within RESTORE_MILLIS, read from the system property
+ * "journal.restore" (default 60000), is given up as if the player had
+ * exited, and a restored room nobody has returned to is ended, so that its
+ * game no longer keeps its journal segment.
+ */
+public class RoomRegistry {
+	public static final long BOT_DELAY_MILLIS = Long.getLong("bot.delay", 10_000);
+	public static final long RESUME_GRACE_MILLIS = Long.getLong("session.grace", 30_000);
+	public static final long RESTORE_MILLIS = Long.getLong("journal.restore", 60_000);
+
+	private static final double BOT_MISTAKE_RATE = BotPlayer.mistakeRate(System.getProperty("bot.difficulty", "perfect"));
+
+	private final ConcurrentHashMap<Integer, GameRoom> rooms = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Long, RestoredSeat> restoredSeats = new ConcurrentHashMap<>();
+	private final AtomicInteger nextId = new AtomicInteger(1);
+	private final ForkJoinPool roomExecutor = new ForkJoinPool(
+			Runtime.getRuntime().availableProcessors(), ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+	private final Map<GameRoom, BotPlayer> bots = new HashMap<>();
+	private final ForkJoinPool spectatorExecutor = new ForkJoinPool(
+			Math.max(1, Runtime.getRuntime().availableProcessors() / 2), pool -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("spectators-" + thread.getPoolIndex());
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}, null, true);
+	private final MonteCarloSearch search = new MonteCarloSearch(new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
+	private final HintService hints = new HintService(search);
+	private final ConcurrentHashMap<Long, GameSession> sessions = new ConcurrentHashMap<>();
+	private final SecureRandom tokens = new SecureRandom();
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "room-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Journal journal;
+	private final PlayerStats stats;
+	private final Matchmaker matchmaker;
+
+	/**
+     * The RestoredSeat class is a seat of a game restored from the journal,
+     * waiting for its player to resume the session.
+     */
+	static final class RestoredSeat {
+		private final GameRoom room;
+		private final String player;
+
+		private RestoredSeat(GameRoom room, String player) {
+			this.room = room;
+			this.player = player;
+		}
+
+		/**
+         * Returns the room of the seat.
+         *
+         * @return the restored room
+         */
+		GameRoom getRoom() {
+			return room;
+		}
+
+		/**
+         * Returns the player who sits in the seat.
+         *
+         * @return either X or O
+         */
+		String getPlayer() {
+			return player;
+		}
+	}
+
+	/**
+     * Constructs a RoomRegistry recording its games in the journal and the
+     * player statistics configured by the system properties, and restores
+     * the games the journal holds.
+     */
+	public RoomRegistry() {
+		this(Journal.open(), PlayerStats.open());
+	}
+
+	/**
+     * Constructs a RoomRegistry recording its games in the specified
+     * journal and player statistics, and restores the games the journal
+     * holds.
+     *
+     * @param journal 	the journal of the rooms
+     * @param stats 	the statistics of the players
+     */
+	public RoomRegistry(Journal journal, PlayerStats stats) {
+		this.journal = journal;
+		this.stats = stats;
+		for (Journal.RecoveredGame game : journal.getRecoveredGames()) {
+			GameBoard board = game.getBoard();
+			GameRoom room = new GameRoom(game.getRoomId(), board.getWidth(), board.getHeight(), board.getWinLength(),
+					roomExecutor, spectatorExecutor, journal, stats);
+			room.restore(game);
+			rooms.put(room.getId(), room);
+			ServerMetrics.gameOpened();
+			for (String player : new String[] {"X", "O"}) {
+				long token = game.getToken(player);
+				if (token != 0) {
+					restoredSeats.put(token, new RestoredSeat(room, player));
+				}
+			}
+			nextId.accumulateAndGet(room.getId() + 1, Math::max);
+			timer.schedule(() -> expireRestored(room), RESTORE_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		this.matchmaker = new Matchmaker(BOT_DELAY_MILLIS, this::startGame);
+	}
+
+	/**
+     * Puts a player in the matchmaking queue.
+     *
+     * @param connection 	the connection of the joining player
+     * @param width 		the number of columns of the board
+     * @param height 		the number of rows of the board
+     * @param winLength 	the number of marks in a row needed to win
+     * @param playerName 	the name of the player, or null if anonymous
+     * @param onJoined 		called with the room and the player's seat once the
+     *                      player is seated, before any later player is seated,
+     *                      e.g. to queue the announcement of the join on the room
+     * @return the player's ticket in the queue
+     */
+	public Matchmaker.Ticket join(ClientConnection connection, int width, int height, int winLength,
+			String playerName, ObjIntConsumer<GameRoom> onJoined) {
+		return matchmaker.enqueue(connection, width, height, winLength, stats.getRating(playerName), onJoined);
+	}
+
+	/**
+     * Opens a room for a pair of players from the matchmaking queue, or for
+     * a player and a bot, and seats them. Runs on the matchmaker's thread.
+     *
+     * @param first 	the ticket of the player seated as X
+     * @param second 	the ticket of the player seated as O, or null to seat a bot
+     */
+	private void startGame(Matchmaker.Ticket first, Matchmaker.Ticket second) {
+		GameRoom room;
+		synchronized (this) {
+			room = new GameRoom(nextId.getAndIncrement(), first.getWidth(), first.getHeight(), first.getWinLength(),
+					roomExecutor, spectatorExecutor, journal, stats);
+			rooms.put(room.getId(), room);
+			ServerMetrics.gameOpened();
+			room.execute(room::recordStart);
+			room.addPlayer(first.getConnection());
+		}
+		first.getOnJoined().accept(room, 1);
+		if (second != null) {
+			room.addPlayer(second.getConnection());
+			second.getOnJoined().accept(room, 2);
+		} else {
+			synchronized (this) {
+				if (room.getPlayerCount() == 1) {
+					addBot(room);
+				}
+			}
+		}
+	}
+
+	/**
+     * Gives up the seats of a room restored from the journal that have not
+     * been taken again: the room is ended if nobody has returned to it, and
+     * otherwise the player who has returned is told that the opponent left.
+     *
+     * @param room 	the restored room
+     */
+	private synchronized void expireRestored(GameRoom room) {
+		List<RestoredSeat> expired = new ArrayList<>();
+		restoredSeats.values().removeIf(seat -> seat.room == room && expired.add(seat));
+		if (rooms.get(room.getId()) != room) {
+			return;
+		}
+		if (room.getPlayerCount() == 0) {
+			rooms.remove(room.getId());
+			room.execute(room::recordEnd);
+			ServerMetrics.gameClosed();
+			Log.info("Restored {} expired", room);
+		} else if (!expired.isEmpty() && !room.isClosed()) {
+			room.markClosed();
+			Message exit = Message.exit(expired.get(0).player);
+			room.execute(() -> room.broadcast(exit));
+		}
+	}
+
+	/**
+     * Seats a bot in a room as player 2 and announces it.
+     *
+     * @param room 	the room with one player
+     */
+	private void addBot(GameRoom room) {
+		seatBot(room);
+		room.execute(() -> room.broadcast(Message.P2_JOINED));
+	}
+
+	private void seatBot(GameRoom room) {
+		BotPlayer bot = new BotPlayer(room, this, BOT_MISTAKE_RATE);
+		bots.put(room, bot);
+		room.addPlayer(bot);
+		Log.debug("Bot joined {}", room);
+	}
+
+	/**
+     * Seats a player who resumes its session after a restart in the game
+     * restored from the journal it was playing. If the other seat of the
+     * game had no session, it was a bot's, and a bot takes it again without
+     * being announced, since the player is sent the state of the room.
+     *
+     * @param token 		the session token of the player
+     * @param session 		the session resuming it
+     * @param connection 	the connection of the player
+     * @return the seat, or null if no restored seat has this token
+     */
+	synchronized RestoredSeat reclaimSeat(long token, GameSession session, ClientConnection connection) {
+		RestoredSeat seat = restoredSeats.remove(token);
+		if (seat == null || rooms.get(seat.room.getId()) != seat.room || seat.room.isClosed()
+				|| sessions.putIfAbsent(token, session) != null) {
+			return null;
+		}
+		seat.room.addPlayer(connection);
+		if (seat.player.equals("X") && seat.room.getPlayerCount() == 1 && !hasRestoredSeat(seat.room)) {
+			seatBot(seat.room);
+		}
+		return seat;
+	}
+
+	private boolean hasRestoredSeat(GameRoom room) {
+		for (RestoredSeat seat : restoredSeats.values()) {
+			if (seat.room == room) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+     * Issues a new session token to a seated player.
+     *
+     * @param session 	the session of the player
+     * @return the token, never 0
+     */
+	long openSession(GameSession session) {
+		long token;
+		do {
+			token = tokens.nextLong();
+		} while (token == 0 || restoredSeats.containsKey(token) || sessions.putIfAbsent(token, session) != null);
+		return token;
+	}
+
+	/**
+     * Retrieves the session holding the specified token.
+     *
+     * @param token 	the session token
+     * @return the session, or null if the token is unknown or has expired
+     */
+	GameSession getSession(long token) {
+		return sessions.get(token);
+	}
+
+	/**
+     * Moves a session token over to the session that resumed it.
+     *
+     * @param token 		the session token
+     * @param previous 		the session holding the token
+     * @param session 		the session resuming it
+     * @return true if the token was moved, false if it had expired meanwhile
+     */
+	boolean resumeSession(long token, GameSession previous, GameSession session) {
+		return sessions.replace(token, previous, session);
+	}
+
+	/**
+     * Invalidates a session token, e.g. after its player has left the room.
+     *
+     * @param token 		the session token
+     * @param session 		the session holding the token
+     */
+	void closeSession(long token, GameSession session) {
+		sessions.remove(token, session);
+	}
+
+	/**
+     * Runs a task once a disconnected player's grace period is over.
+     *
+     * @param expiry 	the task releasing the player's seat
+     */
+	void expireLater(Runnable expiry) {
+		timer.schedule(expiry, RESUME_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+     * Forces the records the journal has not synced yet to disk and stops
+     * its sync thread, e.g. when the server stops.
+     */
+	public void shutdown() {
+		journal.close();
+	}
+
+	/**
+     * Returns the search used by the bots on boards other than 3x3.
+     *
+     * @return the search
+     */
+	public MonteCarloSearch getSearch() {
+		return search;
+	}
+
+	/**
+     * Returns the statistics of the players.
+     *
+     * @return the player statistics
+     */
+	public PlayerStats getStats() {
+		return stats;
+	}
+
+	/**
+     * Returns the service answering the players' requests for hints.
+     *
+     * @return the hint service
+     */
+	public HintService getHints() {
+		return hints;
+	}
+
+	/**
+     * Removes a player from the specified room. A bot left alone in the room
+     * leaves with the player, and the room is discarded once it has no
+     * players left.
+     *
+     * @param room 		the room the player is leaving
+     * @param connection 	the connection of the leaving player
+     */
+	public synchronized void leave(GameRoom room, ClientConnection connection) {
+		int remaining = room.removePlayer(connection);
+		BotPlayer bot = bots.get(room);
+		if (bot != null && bot != connection && remaining == 1) {
+			remaining = room.removePlayer(bot);
+		}
+		if (remaining == 0) {
+			room.execute(room::recordEnd);
+			bots.remove(room);
+			rooms.remove(room.getId());
+			ServerMetrics.gameClosed();
+		}
+	}
+
+	/**
+     * Closes a room so that no new player is paired into it, e.g. after one
+     * of its players has exited the game.
+     *
+     * @param room 	the room to close
+     */
+	public void close(GameRoom room) {
+		room.markClosed();
+	}
+
+	/**
+     * Retrieves the room with the specified id.
+     *
+     * @param id 	the id of the room
+     * @return the room, or null if no such room exists
+     */
+	public GameRoom getRoom(int id) {
+		return rooms.get(id);
+	}
+
+	/**
+     * Returns the number of rooms currently hosted.
+     *
+     * @return the number of rooms
+     */
+	public int getRoomCount() {
+		return rooms.size();
+	}
+}
@@ -0,0 +1,206 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+/**
+ * The SelfPlay class plays bot-vs-bot games offline, without a server or
+ * sockets, to compare bot strategies and opening rules. Games are played
+ * on the boards the server uses, so a game is decided by the same rules:
+ * ServerBoard for the classic 3x3 game and GridBoard for larger boards.
+ *
+ * The games are split into chunks that a parallel stream spreads over all
+ * cores. Every thread keeps one board, reset between games, and the chunks
+ * only count outcomes in primitives, so playing a game does not allocate.
+ * At the end, the run prints the share of wins for X and O and of draws,
+ * the average game length and the throughput in games per second.
+ *
+ * Usage: java SelfPlay [games] [strategyX] [strategyO]. A strategy is
+ * "random", or on the 3x3 board one of the SolvedGame levels of BotPlayer:
+ * "perfect", "hard", "medium" or "easy" (default random for both). The
+ * board size is read from the system property "sim.board", e.g. "15 15 5"
+ * (default 3 3 3), and "sim.opening", e.g. "1 1,0 0", forces the first
+ * moves of every game.
+ */
+public class SelfPlay {
+	private static final int DEFAULT_GAMES = 10_000_000;
+	private static final int CHUNK_GAMES = 10_000;
+
+	private final int[] boardSize;
+	private final Strategy[] strategies;
+	private final int[] opening;
+	private final ThreadLocal<GameBoard> boards;
+
+	/**
+     * The Strategy interface chooses the move of the player to move.
+     */
+	@FunctionalInterface
+	private interface Strategy {
+
+		/**
+         * Chooses a move on a board with the game in progress.
+         *
+         * @param board 	the board
+         * @param random 	the source of randomness
+         * @return the chosen cell as row * width + col
+         */
+		int move(GameBoard board, ThreadLocalRandom random);
+	}
+
+	/**
+     * Constructs a SelfPlay run.
+     *
+     * @param boardSize 	the width, height and win length of the boards
+     * @param strategyX 	the name of the strategy of player X
+     * @param strategyO 	the name of the strategy of player O
+     * @param opening 		the cells of the forced first moves, as row * width + col
+     * @throws IllegalArgumentException if a strategy is unknown or needs a
+     *                                  3x3 board
+     */
+	public SelfPlay(int[] boardSize, String strategyX, String strategyO, int[] opening) {
+		this.boardSize = boardSize;
+		this.strategies = new Strategy[] {strategy(strategyX), strategy(strategyO)};
+		this.opening = opening;
+		this.boards = ThreadLocal.withInitial(() -> GameBoard.create(boardSize[0], boardSize[1], boardSize[2]));
+	}
+
+	private Strategy strategy(String name) {
+		if (name.equalsIgnoreCase("random")) {
+			return SelfPlay::randomMove;
+		}
+		boolean classic = boardSize[0] == ServerBoard.SIZE && boardSize[1] == ServerBoard.SIZE
+				&& boardSize[2] == ServerBoard.SIZE;
+		double mistakeRate = BotPlayer.mistakeRate(name);
+		if (!classic || (mistakeRate == 0 && !name.equalsIgnoreCase("perfect"))) {
+			throw new IllegalArgumentException("Unknown strategy " + name + " for this board");
+		}
+		return (board, random) -> {
+			ServerBoard solved = (ServerBoard) board;
+			return SolvedGame.chooseMove(solved.getXBits(), solved.getOBits(), mistakeRate, random);
+		};
+	}
+
+	/**
+     * Plays the specified number of games and prints the results.
+     *
+     * @param games 	the number of games to play
+     */
+	public void run(int games) {
+		int chunks = (games + CHUNK_GAMES - 1) / CHUNK_GAMES;
+		long start = System.nanoTime();
+		long[] totals = IntStream.range(0, chunks)
+				.parallel()
+				.mapToObj(chunk -> playChunk(Math.min(CHUNK_GAMES, games - chunk * CHUNK_GAMES)))
+				.reduce(new long[4], SelfPlay::add);
+		long elapsed = System.nanoTime() - start;
+		report(games, totals, elapsed);
+	}
+
+	/**
+     * Plays a chunk of games on this thread's board.
+     *
+     * @param games 	the number of games of the chunk
+     * @return the wins of X, the wins of O, the draws and the number of moves
+     */
+	private long[] playChunk(int games) {
+		GameBoard board = boards.get();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int width = board.getWidth();
+		long xWins = 0;
+		long oWins = 0;
+		long draws = 0;
+		long moves = 0;
+		for (int game = 0; game < games; game++) {
+			board.resetBoard();
+			String result = board.checkWin();
+			while (result.equals("continue")) {
+				int turn = board.getMoveCount();
+				int cell = turn < opening.length ? opening[turn] : strategies[turn % 2].move(board, random);
+				board.updateBoard(turn % 2 == 0 ? "X" : "O", cell / width, cell % width);
+				result = board.checkWin();
+			}
+			moves += board.getMoveCount();
+			if (result.equals("X")) {
+				xWins++;
+			} else if (result.equals("O")) {
+				oWins++;
+			} else {
+				draws++;
+			}
+		}
+		return new long[] {xWins, oWins, draws, moves};
+	}
+
+	private static long[] add(long[] a, long[] b) {
+		return new long[] {a[0] + b[0], a[1] + b[1], a[2] + b[2], a[3] + b[3]};
+	}
+
+	/**
+     * Picks a random free cell. On the 3x3 board the free cells are taken
+     * from the cell masks; on larger boards the first free cell from a
+     * random start is taken, which is close to uniform while the board is
+     * mostly empty.
+     */
+	private static int randomMove(GameBoard board, ThreadLocalRandom random) {
+		if (board instanceof ServerBoard) {
+			ServerBoard solved = (ServerBoard) board;
+			int free = ~(solved.getXBits() | solved.getOBits()) & ((1 << (ServerBoard.SIZE * ServerBoard.SIZE)) - 1);
+			for (int pick = random.nextInt(Integer.bitCount(free)); pick > 0; pick--) {
+				free &= free - 1;
+			}
+			return Integer.numberOfTrailingZeros(free);
+		}
+		int width = board.getWidth();
+		int cells = width * board.getHeight();
+		int cell = random.nextInt(cells);
+		while (board.getGrid(cell / width, cell % width) != null) {
+			cell = (cell + 1) % cells;
+		}
+		return cell;
+	}
+
+	private void report(int games, long[] totals, long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		System.out.printf("Games:      %,d in %.2f s (%,.0f/s)%n", games, seconds, games / seconds);
+		System.out.printf("X wins:     %,d (%.2f%%)%n", totals[0], totals[0] * 100.0 / games);
+		System.out.printf("O wins:     %,d (%.2f%%)%n", totals[1], totals[1] * 100.0 / games);
+		System.out.printf("Draws:      %,d (%.2f%%)%n", totals[2], totals[2] * 100.0 / games);
+		System.out.printf("Moves/game: %.2f%n", (double) totals[3] / games);
+	}
+
+	/**
+     * The main method that runs the simulation.
+     *
+     * @param args 	the optional number of games and the strategies of X and O
+     */
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+		String strategyX = args.length > 1 ? args[1] : "random";
+		String strategyO = args.length > 2 ? args[2] : "random";
+		String[] board = System.getProperty("sim.board", "3 3 3").trim().split("\\s+");
+		int[] boardSize = {Integer.parseInt(board[0]), Integer.parseInt(board[1]), Integer.parseInt(board[2])};
+		if (!GameBoard.isValidSize(boardSize[0], boardSize[1], boardSize[2])) {
+			throw new IllegalArgumentException("Invalid board size " + String.join(" ", board));
+		}
+
+		String openingMoves = System.getProperty("sim.opening", "").trim();
+		String[] moves = openingMoves.isEmpty() ? new String[0] : openingMoves.split("\\s*,\\s*");
+		int[] opening = new int[moves.length];
+		for (int i = 0; i < moves.length; i++) {
+			String[] move = moves[i].split("\\s+");
+			int row = Integer.parseInt(move[0]);
+			int col = Integer.parseInt(move[1]);
+			if (row < 0 || row >= boardSize[1] || col < 0 || col >= boardSize[0]) {
+				throw new IllegalArgumentException("Opening move outside the board: " + moves[i]);
+			}
+			opening[i] = row * boardSize[0] + col;
+			for (int j = 0; j < i; j++) {
+				if (opening[j] == opening[i]) {
+					throw new IllegalArgumentException("Opening move played twice: " + moves[i]);
+				}
+			}
+		}
+
+		System.out.printf("Playing %,d games of %s vs %s on %dx%d with %d in a row using %d threads%n", games,
+				strategyX, strategyO, boardSize[0], boardSize[1], boardSize[2], Runtime.getRuntime().availableProcessors());
+		new SelfPlay(boardSize, strategyX, strategyO, opening).run(games);
+	}
+}
@@ -1,44 +1,116 @@
 import java.net.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
  * The Server class manages the game server, accepting client connections
- * and handling game logic for a multi-client environment.
+ * and handling game logic for a multi-client environment. Clients are
+ * paired into independent game rooms, so that each pair of players has
+ * its own board and only receives the events of its own game.
  */
 
 public class Server {
 	private ServerSocket serverSocket;
-	private ServerBoard board;
-	int playerCount = 0;
+	private RoomRegistry rooms;
+	private ExecutorService pool;
+	private ExecutorService writerPool;
 	
 	/**
-     * Constructs a Server with the specified ServerSocket.
+     * Constructs a Server with the specified ServerSocket, which handles
+     * clients using a fixed thread pool.
      *
      * @param serverSocket 	the ServerSocket to listen for client connections
      */
 	public Server(ServerSocket serverSocket) {
+		this(serverSocket, Executors.newFixedThreadPool(200));
+	}
+	
+	/**
+     * Constructs a Server with the specified ServerSocket and room
+     * registry, which handles clients using a fixed thread pool.
+     *
+     * @param serverSocket 	the ServerSocket to listen for client connections
+     * @param rooms 		the registry of the server's game rooms
+     */
+	public Server(ServerSocket serverSocket, RoomRegistry rooms) {
+		this(serverSocket, Executors.newFixedThreadPool(200), Executors.newCachedThreadPool(), rooms);
+	}
+	
+	/**
+     * Constructs a Server with the specified ServerSocket and executor.
+     *
+     * @param serverSocket 	the ServerSocket to listen for client connections
+     * @param pool 			the executor running one Handler per client
+     */
+	public Server(ServerSocket serverSocket, ExecutorService pool) {
+		this(serverSocket, pool, Executors.newCachedThreadPool());
+	}
+	
+	/**
+     * Constructs a Server with the specified ServerSocket and executors.
+     *
+     * @param serverSocket 	the ServerSocket to listen for client connections
+     * @param pool 			the executor running one Handler per client
+     * @param writerPool 	the executor writing the clients' outbound queues
+     */
+	public Server(ServerSocket serverSocket, ExecutorService pool, ExecutorService writerPool) {
+		this(serverSocket, pool, writerPool, new RoomRegistry());
+	}
+	
+	/**
+     * Constructs a Server with the specified ServerSocket, executors and
+     * room registry.
+     *
+     * @param serverSocket 	the ServerSocket to listen for client connections
+     * @param pool 			the executor running one Handler per client
+     * @param writerPool 	the executor writing the clients' outbound queues
+     * @param rooms 		the registry of the server's game rooms
+     */
+	public Server(ServerSocket serverSocket, ExecutorService pool, ExecutorService writerPool, RoomRegistry rooms) {
 		this.serverSocket = serverSocket;
-		this.board = new ServerBoard();
+		this.rooms = rooms;
+		this.pool = pool;
+		this.writerPool = writerPool;
 	}
 	
-	private Set<PrintWriter> writers = new HashSet<>();
+	/**
+     * Creates an executor that runs every task on a new virtual thread.
+     * A parked virtual thread only holds a small heap-allocated stack, so
+     * the blocking Handler can be used for tens of thousands of clients.
+     * Virtual threads require Java 21 or later; the executor is looked up
+     * reflectively so the server still builds and runs on older JDKs.
+     *
+     * @return the virtual thread executor
+     * @throws UnsupportedOperationException if the JVM has no virtual threads
+     */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException(
+					"Virtual threads require Java 21 or later, running on " + Runtime.version());
+		}
+	}
 	
 	/**
-     * Starts the server to accept client connections and handle them
-     * using a fixed thread pool.
+     * Starts the server to accept client connections and handle each of
+     * them on the server's executor. Nagle's algorithm is turned off, as in
+     * NioServer: the server already coalesces each batch into one write, so
+     * a write is never worth delaying for the ACK of the previous one.
      */
 	public void start() {
-		var pool = Executors.newFixedThreadPool(200);
 		int clientCount = 1;
 		while (true) {
 			try {
 				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
 				pool.execute(new Handler(socket));
-				System.out.println("Connected to client " + clientCount++);
+				ServerMetrics.connectionAccepted();
+				Log.info("Connected to client {}", clientCount++);
 			} catch (IOException e) {
-				e.printStackTrace();
+				Log.warn("Accept failed: {}", e.getMessage());
 			}
 
 		}
@@ -48,10 +120,12 @@ public class Server {
      * The Handler class implements Runnable to handle communication
      * with a connected client.
      */
-	public class Handler implements Runnable {
+	public class Handler implements Runnable, ClientConnection {
 		private Socket socket;
-		private Scanner input;
-		private PrintWriter output;
+		private DataInputStream input;
+		private OutboundQueue output;
+		private boolean binary;
+		private volatile boolean binaryOutput;
 
 		/**
          * Constructs a Handler for the specified socket.
@@ -63,105 +137,112 @@ public class Server {
 		}
 		
 		/**
-         * Runs the handler to process client input and manage game events.
+         * Runs the handler to read client input and pass each line, or each
+         * frame once the client has switched to the binary protocol, to the
+         * client's game session.
          */
 		@Override
 		public void run() {
-			System.out.println("Connected: " + socket);
+			Log.info("Connected: {}", socket);
+			GameSession session = new GameSession(rooms, this);
+			ServerMetrics.connectionOpened();
 			try {
-				input = new Scanner(socket.getInputStream());
-				output = new PrintWriter(socket.getOutputStream(), true);
-
-				writers.add(output);
-
-				while (input.hasNextLine()) {
-					var command = input.nextLine();
-					System.out.println("Server Received: " + command);
-
-					if (command.startsWith("name")) {
-						board.resetBoard();
-						playerCount++;
+				input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				output = new OutboundQueue(new BufferedOutputStream(socket.getOutputStream()), writerPool,
+						OutboundQueue.DEFAULT_CAPACITY, this::close);
+				byte[] buffer = new byte[BinaryProtocol.MAX_FRAME_LENGTH];
+				byte[] line = new byte[CommandLine.MAX_LENGTH];
 
-						if ((playerCount == 1)) {
-							output.println("P1 joined");
-							System.out.println("P1 joined");
-							System.out.println(playerCount);
+				while (true) {
+					if (binary) {
+						int length = input.readUnsignedShort();
+						if (length == 0 || length > buffer.length) {
+							throw new IOException("Invalid frame length " + length);
 						}
-						else if (playerCount == 2) {
-							for (PrintWriter writer : writers) {
-								writer.println("P2 joined");
-							}
-							System.out.println("P2 joined");
-							playerCount  = 0;
-							System.out.println(playerCount);
-						}
-					}
-					
-					if (command.startsWith("move")) {
-						String[] msg = command.split(" ");
-						
-						String playerName = msg[1];
-						int row = Integer.parseInt(msg[2]);
-						int col = Integer.parseInt(msg[3]);
-						
-						System.out.println(row);
-						System.out.println(col);
-						
-						if (board.getGrid(row, col) == null) {
-							for (PrintWriter writer : writers) {
-								writer.println(command);
-							}
-							board.updateBoard(playerName, row, col);
-							
-							String result = board.checkWin();
-							System.out.println(result);
-							if (!result.equals("continue")) {
-								if (result.equals("X")) {
-									for (PrintWriter writer : writers) {
-										writer.println("result X");
-									}
-									System.out.println("result X");
-								} else if (result.equals("O")) {
-									for (PrintWriter writer : writers) {
-										writer.println("result O");
-									}
-									System.out.println("result O");
-								} else if (result.equals("DRAW")) {
-									for (PrintWriter writer : writers) {
-										writer.println("result draw");
-									}
-									System.out.println("result draw");
-								}
-							}
-						}					
-					}
-					
-					if (command.startsWith("exit")) {
-						playerCount = 0;
-						for (PrintWriter writer : writers) {
-							writer.println(command);
-						} 
-					}
-					
-					if (command.startsWith("restart")) {
-						for (PrintWriter writer : writers) {
-							writer.println(command);
-						}
-					}
-					
-					if (command.startsWith("ready")) {
-						board.resetBoard();
-						for (PrintWriter writer : writers) {
-							writer.println("start new game");
+						input.readFully(buffer, 0, length);
+						session.handleFrame(buffer, length);
+					} else {
+						int length = readLine(input, line);
+						if (length < 0) {
+							break;
 						}
+						session.handle(line, length);
 					}
 				}
+			} catch (EOFException e) {
+				// the client closed the connection between two frames
 			} catch (Exception e) {
-				System.out.println(e.getMessage());
+				Log.warn("{}: {}", socket, e.getMessage());
 			} finally {
+				session.disconnect();
 				if (output != null) {
-					writers.remove(output);
+					output.close();
+				}
+				ServerMetrics.connectionClosed();
+			}
+		}
+		
+		/**
+         * Reads a single text line into a buffer.
+         *
+         * @param in 		the stream to read from
+         * @param line 		the buffer receiving the line
+         * @return the length of the line without its terminator, or -1 at the end of the stream
+         * @throws IOException if the stream cannot be read or the line does not fit the buffer
+         */
+		private int readLine(InputStream in, byte[] line) throws IOException {
+			int length = 0;
+			int b;
+			while ((b = in.read()) != '\n') {
+				if (b < 0) {
+					return length > 0 ? length : -1;
 				}
+				if (b != '\r') {
+					if (length == line.length) {
+						throw new IOException("Line too long from " + socket);
+					}
+					line[length++] = (byte) b;
+				}
+			}
+			return length;
+		}
+		
+		/**
+         * Queues a message for this client without waiting for it to be written.
+         *
+         * @param message 	the message to send
+         */
+		@Override
+		public void send(Message message) {
+			output.offer(binaryOutput ? message.getFrame() : message.getTextBytes());
+		}
+		
+		/**
+         * Schedules the queued messages of this client to be written.
+         */
+		@Override
+		public void flush() {
+			output.flush();
+		}
+		
+		/**
+         * Switches this client to the binary protocol.
+         */
+		@Override
+		public void switchToBinary() {
+			binary = true;
+			binaryOutput = true;
+		}
+		
+		/**
+         * Closes the socket of this client.
+         */
+		@Override
+		public void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				Log.warn("{}: {}", socket, e.getMessage());
 			}
 		}
 	}
@@ -1,18 +1,70 @@
+import java.util.Arrays;
+
 /**
- * The ServerBoard class represents the game board for Tic Tac Toe.
+ * The ServerBoard class represents the classic 3x3 game board for Tic Tac Toe.
  * It manages the state of the board, updates player moves, checks for wins,
  * and resets the board for new games.
+ *
+ * The cells of each side are stored as a 9-bit mask, where the cell at
+ * (row, col) is bit row * 3 + col. For each side the board also counts the
+ * marks on each of the 8 winning lines. A move only updates the counters of
+ * the lines through its cell, so the verdict is decided from those lines
+ * alone when the move is made, and a draw from the number of moves played.
+ *
+ * A board is not thread-safe; it is confined to the commands of its room.
  */
-public class ServerBoard {
-	private String[][] board;
-	
+public class ServerBoard implements GameBoard {
+	public static final int SIZE = 3;
+
+	private static final int[] WIN_MASKS = {
+			0b000_000_111, 0b000_111_000, 0b111_000_000,	// rows
+			0b001_001_001, 0b010_010_010, 0b100_100_100,	// columns
+			0b100_010_001, 0b001_010_100					// diagonals
+	};
+	private static final int[][] CELL_LINES = new int[SIZE * SIZE][];
+
+	static {
+		for (int cell = 0; cell < SIZE * SIZE; cell++) {
+			int count = 0;
+			int[] lines = new int[4];
+			for (int line = 0; line < WIN_MASKS.length; line++) {
+				if ((WIN_MASKS[line] & (1 << cell)) != 0) {
+					lines[count++] = line;
+				}
+			}
+			CELL_LINES[cell] = Arrays.copyOf(lines, count);
+		}
+	}
+
+	private int xBits;
+	private int oBits;
+	private final int[] xLineCounts = new int[WIN_MASKS.length];
+	private final int[] oLineCounts = new int[WIN_MASKS.length];
+	private int moveCount;
+	private String result;
+
 	/**
-     * Constructs a ServerBoard and initializes the board to a 3x3 grid.
+     * Constructs a ServerBoard and initializes the board to an empty 3x3 grid.
      */
 	public ServerBoard() {
-		board = new String [3][3];
+		resetBoard();
+	}
+
+	@Override
+	public int getWidth() {
+		return SIZE;
+	}
+
+	@Override
+	public int getHeight() {
+		return SIZE;
+	}
+
+	@Override
+	public int getWinLength() {
+		return SIZE;
 	}
-	
+
 	/**
      * Updates the board at the specified row and column with the player's identifier.
      *
@@ -21,36 +73,56 @@ public class ServerBoard {
      * @param col 		the column index where the player is making a move
      */
 	public void updateBoard(String player, int row, int col) {
-		System.out.println("Update board " + row + ", " + col + "by " + player);
-		board[row][col] = player;
+		if (Log.isDebugEnabled()) {
+			Log.debug("Update board {}, {} by {}", row, col, player);
+		}
+		int cell = row * SIZE + col;
+		int bit = 1 << cell;
+		if (((xBits | oBits) & bit) != 0) {
+			return;
+		}
+
+		int[] lineCounts;
+		if (player.equals("X")) {
+			xBits |= bit;
+			lineCounts = xLineCounts;
+		} else if (player.equals("O")) {
+			oBits |= bit;
+			lineCounts = oLineCounts;
+		} else {
+			return;
+		}
+		moveCount++;
+
+		for (int line : CELL_LINES[cell]) {
+			if (++lineCounts[line] == SIZE && result.equals("continue")) {
+				result = player.equals("X") ? "X" : "O";
+			}
+		}
+		if (result.equals("continue") && isBoardFull()) {
+			result = "DRAW";
+		}
 	}
-	
+
 	/**
      * Checks if the board is full.
      *
      * @return true if the board is full, false otherwise
      */
-	public synchronized boolean isBoardFull() {
-		for (int row = 0; row < 3; row++) {
-			for (int col = 0; col < 3; col++) {
-				if (board[row][col] == null) {
-					return false;
-				}
-			}
-		}
-		
-		return true;
+	public boolean isBoardFull() {
+		return moveCount == SIZE * SIZE;
 	}
-	
+
 	/**
      * Resets the board by clearing all texts.
      */
-	public synchronized void resetBoard() {
-		for (int row = 0; row < 3; row++) {
-			for (int col = 0; col < 3; col++) {
-				board[row][col] = null;
-			}
-		}
+	public void resetBoard() {
+		xBits = 0;
+		oBits = 0;
+		Arrays.fill(xLineCounts, 0);
+		Arrays.fill(oLineCounts, 0);
+		moveCount = 0;
+		result = "continue";
 	}
 
 	/**
@@ -60,44 +132,68 @@ public class ServerBoard {
      * @param col 	the column index of the grid
      * @return the value at the specified grid position, or null if empty
      */
-	public synchronized String getGrid(int row, int col) {
-		return board[row][col];
+	public String getGrid(int row, int col) {
+		int bit = 1 << (row * SIZE + col);
+		if ((xBits & bit) != 0) {
+			return "X";
+		}
+		if ((oBits & bit) != 0) {
+			return "O";
+		}
+		return null;
 	}
-	
+
 	/**
-     * Checks the current state of the game to determine if there is a winner,
-     * a draw, or if the game should continue.
+     * Returns the cells occupied by player X.
      *
-     * @return "X" if player X wins, "O" if player O wins, "DRAW" if it's a draw,
-     *         or "continue" if the game is still ongoing
+     * @return a 9-bit mask of the cells of player X
      */
-	public synchronized String checkWin() {
-		// check horizontally
-		for (int i = 0; i < 3; i++) {
+	public int getXBits() {
+		return xBits;
+	}
 
-			if (board[i][0] != null && board[i][0].equals(board[i][1]) && board[i][0].equals(board[i][2])) {
-				return board[i][0];
-			}
-			
-			if (board[0][i] != null && board[0][i].equals(board[1][i]) && board[0][i].equals(board[2][i])) {
-				return board[0][i];
+	/**
+     * Returns the cells occupied by player O.
+     *
+     * @return a 9-bit mask of the cells of player O
+     */
+	public int getOBits() {
+		return oBits;
+	}
+
+	/**
+     * Returns the number of moves played since the last reset.
+     *
+     * @return the number of occupied cells
+     */
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+     * Checks whether a set of cells contains a complete line.
+     *
+     * @param bits 	a 9-bit mask of the cells of one player
+     * @return true if the cells contain a row, column or diagonal
+     */
+	public static boolean hasLine(int bits) {
+		for (int mask : WIN_MASKS) {
+			if ((bits & mask) == mask) {
+				return true;
 			}
 		}
-		
-		// check diagonally
-		if (board[0][0] != null && board[0][0].equals(board[1][1]) && board[0][0].equals(board[2][2])) {
-			return board[0][0];
-		}
-		else if (board[0][2] != null && board[0][2].equals(board[1][1]) && board[0][2].equals(board[2][0])) {
-			return board[0][2];
-		}
-		
-		// check draw
-		if (isBoardFull()) {
-			return "DRAW";
-		}
-		
-		return "continue";
-				
+		return false;
+	}
+
+	/**
+     * Checks the current state of the game to determine if there is a winner,
+     * a draw, or if the game should continue. The verdict is kept up to date
+     * by updateBoard(), so this check takes constant time.
+     *
+     * @return "X" if player X wins, "O" if player O wins, "DRAW" if it's a draw,
+     *         or "continue" if the game is still ongoing
+     */
+	public String checkWin() {
+		return result;
 	}
 }
@@ -0,0 +1,348 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The ServerMetrics class collects the server's counters and gauges. They
+ * are recorded through static methods backed by LongAdders, so recording
+ * never contends between threads. The metrics can be read over JMX under
+ * "tictactoe:type=ServerMetrics" and as plain text from a small HTTP
+ * endpoint bound to the loopback interface, for a local collector to scrape.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+	public static final String OBJECT_NAME = "tictactoe:type=ServerMetrics";
+	public static final String HTTP_PATH = "/metrics";
+
+	private static final ServerMetrics INSTANCE = new ServerMetrics();
+
+	private static final LongAdder connectionsAccepted = new LongAdder();
+	private static final LongAdder connectionsActive = new LongAdder();
+	private static final LongAdder gamesActive = new LongAdder();
+	private static final LongAdder movesProcessed = new LongAdder();
+	private static final LongAdder resultsX = new LongAdder();
+	private static final LongAdder resultsO = new LongAdder();
+	private static final LongAdder resultsDraw = new LongAdder();
+	private static final LongAdder outboundQueueDepth = new LongAdder();
+	private static final LongAdder spectators = new LongAdder();
+	private static final LongAdder hintCacheHits = new LongAdder();
+	private static final LongAdder hintCacheMisses = new LongAdder();
+	private static final LatencyHistogram moveLatency = new LatencyHistogram();
+	private static final LatencyHistogram matchWait = new LatencyHistogram();
+	private static volatile long matchmakingQueueDepth;
+
+	private ServerMetrics() {
+	}
+
+	/**
+     * Records an accepted client connection.
+     */
+	public static void connectionAccepted() {
+		connectionsAccepted.increment();
+	}
+
+	/**
+     * Records a client connection starting to be served.
+     */
+	public static void connectionOpened() {
+		connectionsActive.increment();
+	}
+
+	/**
+     * Records a client connection being closed.
+     */
+	public static void connectionClosed() {
+		connectionsActive.decrement();
+	}
+
+	/**
+     * Records a game room being created.
+     */
+	public static void gameOpened() {
+		gamesActive.increment();
+	}
+
+	/**
+     * Records a game room being discarded.
+     */
+	public static void gameClosed() {
+		gamesActive.decrement();
+	}
+
+	/**
+     * Records a processed move, once its broadcast has been flushed to the
+     * players of its room.
+     *
+     * @param receivedNanos 	the System.nanoTime() at which the move was received
+     */
+	public static void moveProcessed(long receivedNanos) {
+		movesProcessed.increment();
+		moveLatency.record(System.nanoTime() - receivedNanos);
+	}
+
+	/**
+     * Records the result of a game.
+     *
+     * @param result 	"X", "O" or "DRAW", as returned by GameBoard.checkWin()
+     */
+	public static void gameResult(String result) {
+		if (result.equals("X")) {
+			resultsX.increment();
+		} else if (result.equals("O")) {
+			resultsO.increment();
+		} else if (result.equals("DRAW")) {
+			resultsDraw.increment();
+		}
+	}
+
+	/**
+     * Records messages being queued for, or written to, a client.
+     *
+     * @param delta 	the change of the number of queued messages
+     */
+	public static void outboundQueued(long delta) {
+		outboundQueueDepth.add(delta);
+	}
+
+	/**
+     * Records a spectator subscribing to a room.
+     */
+	public static void spectatorAdded() {
+		spectators.increment();
+	}
+
+	/**
+     * Records a spectator leaving a room.
+     */
+	public static void spectatorRemoved() {
+		spectators.decrement();
+	}
+
+	/**
+     * Records a hint served from the hint cache.
+     */
+	public static void hintCacheHit() {
+		hintCacheHits.increment();
+	}
+
+	/**
+     * Records a hint that had to be searched.
+     */
+	public static void hintCacheMiss() {
+		hintCacheMisses.increment();
+	}
+
+	/**
+     * Records a player leaving the matchmaking queue to be seated.
+     *
+     * @param enqueuedNanos 	the System.nanoTime() at which the player joined
+     *                          the queue
+     */
+	public static void playerMatched(long enqueuedNanos) {
+		matchWait.record(System.nanoTime() - enqueuedNanos);
+	}
+
+	/**
+     * Records the number of players waiting in the matchmaking queue.
+     *
+     * @param depth 	the number of waiting players
+     */
+	public static void matchmakingQueueDepth(long depth) {
+		matchmakingQueueDepth = depth;
+	}
+
+	/**
+     * Registers the metrics with the platform MBean server.
+     *
+     * @throws JMException if the MBean cannot be registered
+     */
+	public static void registerMBean() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+	}
+
+	/**
+     * Starts an HTTP endpoint on the loopback interface that serves the
+     * metrics as "name value" lines at HTTP_PATH.
+     *
+     * @param port 	the port to listen on
+     * @return the started HTTP server
+     * @throws IOException if the port cannot be bound
+     */
+	public static HttpServer startHttpEndpoint(int port) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(HTTP_PATH, exchange -> {
+			byte[] body = INSTANCE.toText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+		return server;
+	}
+
+	/**
+     * Returns every metric as a "name value" line.
+     *
+     * @return the metrics in text form
+     */
+	public String toText() {
+		StringBuilder text = new StringBuilder();
+		line(text, "connections_accepted_total", getConnectionsAccepted());
+		line(text, "connections_active", getConnectionsActive());
+		line(text, "games_active", getGamesActive());
+		line(text, "moves_processed_total", getMovesProcessed());
+		line(text, "results_total{outcome=\"X\"}", getResultsX());
+		line(text, "results_total{outcome=\"O\"}", getResultsO());
+		line(text, "results_total{outcome=\"draw\"}", getResultsDraw());
+		line(text, "move_latency_count", getMoveLatencyCount());
+		line(text, "move_latency_mean_micros", getMoveLatencyMeanMicros());
+		line(text, "move_latency_micros{quantile=\"0.5\"}", getMoveLatencyP50Micros());
+		line(text, "move_latency_micros{quantile=\"0.99\"}", getMoveLatencyP99Micros());
+		line(text, "move_latency_micros{quantile=\"0.999\"}", getMoveLatencyP999Micros());
+		line(text, "outbound_queue_depth", getOutboundQueueDepth());
+		line(text, "messages_sent_total", getMessagesSent());
+		line(text, "socket_writes_total", getSocketWrites());
+		line(text, "log_messages_dropped_total", getLogMessagesDropped());
+		line(text, "spectators", getSpectators());
+		line(text, "hint_cache_hits_total", getHintCacheHits());
+		line(text, "hint_cache_misses_total", getHintCacheMisses());
+		line(text, "matchmaking_queue_depth", getMatchmakingQueueDepth());
+		line(text, "match_wait_count", getMatchWaitCount());
+		line(text, "match_wait_mean_micros", getMatchWaitMeanMicros());
+		line(text, "match_wait_micros{quantile=\"0.5\"}", getMatchWaitP50Micros());
+		line(text, "match_wait_micros{quantile=\"0.99\"}", getMatchWaitP99Micros());
+		return text.toString();
+	}
+
+	private static void line(StringBuilder text, String name, long value) {
+		text.append("tictactoe_").append(name).append(' ').append(value).append('\n');
+	}
+
+	@Override
+	public long getConnectionsAccepted() {
+		return connectionsAccepted.sum();
+	}
+
+	@Override
+	public long getConnectionsActive() {
+		return connectionsActive.sum();
+	}
+
+	@Override
+	public long getGamesActive() {
+		return gamesActive.sum();
+	}
+
+	@Override
+	public long getMovesProcessed() {
+		return movesProcessed.sum();
+	}
+
+	@Override
+	public long getResultsX() {
+		return resultsX.sum();
+	}
+
+	@Override
+	public long getResultsO() {
+		return resultsO.sum();
+	}
+
+	@Override
+	public long getResultsDraw() {
+		return resultsDraw.sum();
+	}
+
+	@Override
+	public long getMoveLatencyCount() {
+		return moveLatency.getCount();
+	}
+
+	@Override
+	public long getMoveLatencyMeanMicros() {
+		return moveLatency.getMeanNanos() / 1000;
+	}
+
+	@Override
+	public long getMoveLatencyP50Micros() {
+		return moveLatency.getPercentileNanos(50) / 1000;
+	}
+
+	@Override
+	public long getMoveLatencyP99Micros() {
+		return moveLatency.getPercentileNanos(99) / 1000;
+	}
+
+	@Override
+	public long getMoveLatencyP999Micros() {
+		return moveLatency.getPercentileNanos(99.9) / 1000;
+	}
+
+	@Override
+	public long getOutboundQueueDepth() {
+		return outboundQueueDepth.sum();
+	}
+
+	@Override
+	public long getMessagesSent() {
+		return WriteStats.getMessages();
+	}
+
+	@Override
+	public long getSocketWrites() {
+		return WriteStats.getWrites();
+	}
+
+	@Override
+	public long getLogMessagesDropped() {
+		return Log.getDropped();
+	}
+
+	@Override
+	public long getSpectators() {
+		return spectators.sum();
+	}
+
+	@Override
+	public long getHintCacheHits() {
+		return hintCacheHits.sum();
+	}
+
+	@Override
+	public long getHintCacheMisses() {
+		return hintCacheMisses.sum();
+	}
+
+	@Override
+	public long getMatchmakingQueueDepth() {
+		return matchmakingQueueDepth;
+	}
+
+	@Override
+	public long getMatchWaitCount() {
+		return matchWait.getCount();
+	}
+
+	@Override
+	public long getMatchWaitMeanMicros() {
+		return matchWait.getMeanNanos() / 1000;
+	}
+
+	@Override
+	public long getMatchWaitP50Micros() {
+		return matchWait.getPercentileNanos(50) / 1000;
+	}
+
+	@Override
+	public long getMatchWaitP99Micros() {
+		return matchWait.getPercentileNanos(99) / 1000;
+	}
+}
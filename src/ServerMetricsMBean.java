@@ -0,0 +1,53 @@
+/**
+ * The ServerMetricsMBean interface exposes the server's metrics over JMX.
+ */
+public interface ServerMetricsMBean {
+
+	long getConnectionsAccepted();
+
+	long getConnectionsActive();
+
+	long getGamesActive();
+
+	long getMovesProcessed();
+
+	long getResultsX();
+
+	long getResultsO();
+
+	long getResultsDraw();
+
+	long getMoveLatencyCount();
+
+	long getMoveLatencyMeanMicros();
+
+	long getMoveLatencyP50Micros();
+
+	long getMoveLatencyP99Micros();
+
+	long getMoveLatencyP999Micros();
+
+	long getOutboundQueueDepth();
+
+	long getMessagesSent();
+
+	long getSocketWrites();
+
+	long getLogMessagesDropped();
+
+	long getSpectators();
+
+	long getHintCacheHits();
+
+	long getHintCacheMisses();
+
+	long getMatchmakingQueueDepth();
+
+	long getMatchWaitCount();
+
+	long getMatchWaitMeanMicros();
+
+	long getMatchWaitP50Micros();
+
+	long getMatchWaitP99Micros();
+}
@@ -0,0 +1,215 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The SolvedGame class holds the solution of the classic 3x3 game: the
+ * value of every reachable position and the moves that keep that value.
+ * The table is built once, when the class is loaded, by a memoized negamax
+ * search of every reachable position, so answering a position afterwards
+ * is a lookup and never a search. Every child of a position is solved, as
+ * its optimal moves are all the children that keep its value, so there is
+ * nothing for alpha-beta cutoffs to skip.
+ *
+ * A position is indexed by its base-3 encoding, where the cell at
+ * (row, col) is digit row * 3 + col and is 0 if empty, 1 for X and 2 for O.
+ * The 8 rotations and reflections of a position have the same value, so
+ * only the smallest index among them, the canonical index, is solved and
+ * stored, and the optimal moves are mapped back to the orientation asked
+ * for. Of the 19683 indices, only the 765 canonical reachable positions are
+ * filled in.
+ *
+ * Positions are given as the 9-bit cell masks of ServerBoard, and X always
+ * moves first, so the player to move follows from the number of marks.
+ */
+public final class SolvedGame {
+	public static final int WIN = 1;
+	public static final int DRAW = 0;
+	public static final int LOSS = -1;
+
+	private static final int CELLS = ServerBoard.SIZE * ServerBoard.SIZE;
+	private static final int FULL = (1 << CELLS) - 1;
+	private static final int POSITIONS = 19683;
+	private static final byte UNSOLVED = Byte.MIN_VALUE;
+	private static final int[][] SYMMETRIES = new int[8][CELLS];
+	private static final int[] INVERSES = new int[8];
+	private static final short[][] PERMUTED = new short[8][FULL + 1];
+	private static final int[] BASE3 = new int[FULL + 1];
+	private static final byte[] values = new byte[POSITIONS];
+	private static final short[] optimalMoves = new short[POSITIONS];
+	private static int positionCount;
+
+	static {
+		for (int cell = 0; cell < CELLS; cell++) {
+			int row = cell / 3;
+			int col = cell % 3;
+			int[] images = {
+					row * 3 + col, col * 3 + (2 - row), (2 - row) * 3 + (2 - col), (2 - col) * 3 + row,
+					row * 3 + (2 - col), (2 - row) * 3 + col, col * 3 + row, (2 - col) * 3 + (2 - row)
+			};
+			for (int s = 0; s < 8; s++) {
+				SYMMETRIES[s][cell] = images[s];
+			}
+		}
+		for (int s = 0; s < 8; s++) {
+			for (int t = 0; t < 8; t++) {
+				boolean inverse = true;
+				for (int cell = 0; cell < CELLS; cell++) {
+					inverse &= SYMMETRIES[t][SYMMETRIES[s][cell]] == cell;
+				}
+				if (inverse) {
+					INVERSES[s] = t;
+				}
+			}
+		}
+		for (int mask = 0; mask <= FULL; mask++) {
+			int power = 1;
+			for (int cell = 0; cell < CELLS; cell++) {
+				if ((mask & (1 << cell)) != 0) {
+					BASE3[mask] += power;
+					for (int s = 0; s < 8; s++) {
+						PERMUTED[s][mask] |= 1 << SYMMETRIES[s][cell];
+					}
+				}
+				power *= 3;
+			}
+		}
+
+		Arrays.fill(values, UNSOLVED);
+		solve(0, 0);
+	}
+
+	private SolvedGame() {
+	}
+
+	/**
+     * Returns the canonical index of a position: the smallest base-3 index
+     * among its rotations and reflections.
+     *
+     * @param xBits 	the cells of player X
+     * @param oBits 	the cells of player O
+     * @return the canonical index, between 0 and 19682
+     */
+	public static int canonicalIndex(int xBits, int oBits) {
+		return canonicalIndex(xBits, oBits, false);
+	}
+
+	/**
+     * Computes the canonical index, or the symmetry mapping the position
+     * onto it if symmetry is true.
+     */
+	private static int canonicalIndex(int xBits, int oBits, boolean symmetry) {
+		int best = Integer.MAX_VALUE;
+		int bestSymmetry = 0;
+		for (int s = 0; s < 8; s++) {
+			int index = BASE3[PERMUTED[s][xBits]] + 2 * BASE3[PERMUTED[s][oBits]];
+			if (index < best) {
+				best = index;
+				bestSymmetry = s;
+			}
+		}
+		return symmetry ? bestSymmetry : best;
+	}
+
+	/**
+     * Returns the value of a position for the player to move, assuming
+     * perfect play from both sides.
+     *
+     * @param xBits 	the cells of player X
+     * @param oBits 	the cells of player O
+     * @return WIN, DRAW or LOSS for the player to move
+     */
+	public static int evaluate(int xBits, int oBits) {
+		return values[canonicalIndex(xBits, oBits)];
+	}
+
+	/**
+     * Returns the moves that keep the value of a position for the player to
+     * move.
+     *
+     * @param xBits 	the cells of player X
+     * @param oBits 	the cells of player O
+     * @return the mask of the optimal cells, or 0 if the game is over
+     */
+	public static int optimalMoves(int xBits, int oBits) {
+		int s = canonicalIndex(xBits, oBits, true);
+		int index = BASE3[PERMUTED[s][xBits]] + 2 * BASE3[PERMUTED[s][oBits]];
+		return PERMUTED[INVERSES[s]][optimalMoves[index]];
+	}
+
+	/**
+     * Chooses a move for the player to move. With probability mistakeRate
+     * the move is drawn from the moves that are not optimal, if there are
+     * any; otherwise it is drawn from the optimal ones.
+     *
+     * @param xBits 		the cells of player X
+     * @param oBits 		the cells of player O
+     * @param mistakeRate 	the probability of a deliberate mistake, 0 for
+     *                      perfect play
+     * @param random 		the source of randomness
+     * @return the chosen cell, or -1 if the game is over
+     */
+	public static int chooseMove(int xBits, int oBits, double mistakeRate, Random random) {
+		int optimal = optimalMoves(xBits, oBits);
+		if (optimal == 0) {
+			return -1;
+		}
+		int candidates = optimal;
+		int mistakes = FULL & ~(xBits | oBits) & ~optimal;
+		if (mistakes != 0 && mistakeRate > 0 && random.nextDouble() < mistakeRate) {
+			candidates = mistakes;
+		}
+		for (int pick = random.nextInt(Integer.bitCount(candidates)); pick > 0; pick--) {
+			candidates &= candidates - 1;
+		}
+		return Integer.numberOfTrailingZeros(candidates);
+	}
+
+	/**
+     * Returns the number of positions stored in the table.
+     *
+     * @return the number of canonical reachable positions
+     */
+	public static int getPositionCount() {
+		return positionCount;
+	}
+
+	/**
+     * Solves a position and every position reachable from it, and returns
+     * its value for the player to move.
+     */
+	private static int solve(int xBits, int oBits) {
+		int symmetry = canonicalIndex(xBits, oBits, true);
+		int index = BASE3[PERMUTED[symmetry][xBits]] + 2 * BASE3[PERMUTED[symmetry][oBits]];
+		if (values[index] != UNSOLVED) {
+			return values[index];
+		}
+		positionCount++;
+
+		int empty = FULL & ~(xBits | oBits);
+		if (ServerBoard.hasLine(xBits) || ServerBoard.hasLine(oBits)) {
+			values[index] = LOSS;
+			return LOSS;
+		}
+		if (empty == 0) {
+			values[index] = DRAW;
+			return DRAW;
+		}
+
+		boolean xToMove = Integer.bitCount(xBits) == Integer.bitCount(oBits);
+		int value = LOSS - 1;
+		int optimal = 0;
+		for (int cells = empty; cells != 0; cells &= cells - 1) {
+			int bit = cells & -cells;
+			int child = xToMove ? -solve(xBits | bit, oBits) : -solve(xBits, oBits | bit);
+			if (child > value) {
+				value = child;
+				optimal = bit;
+			} else if (child == value) {
+				optimal |= bit;
+			}
+		}
+		values[index] = (byte) value;
+		optimalMoves[index] = PERMUTED[symmetry][optimal];
+		return value;
+	}
+}
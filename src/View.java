@@ -20,7 +20,8 @@ public class View extends JFrame {
 	private JLabel messageTitle;
 	private ScoreBoard scoreBoard;
 	private JPanel boardPanel;
-	private JButton[][] buttonArray = new JButton[3][3];
+	private JPanel west_panel;
+	private JButton[][] buttonArray;
 	private JButton submit;
 	private JTextField nameField;
 	private ControlBar control_bar;
@@ -53,8 +54,8 @@ public class View extends JFrame {
 		
 		
 		// West Panel (Game Board)
-		JPanel west_panel = new JPanel();
-		boardPanel = gameBoard();
+		west_panel = new JPanel();
+		boardPanel = gameBoard(3, 3);
 		west_panel.add(boardPanel);
 		
 		
@@ -104,15 +105,17 @@ public class View extends JFrame {
 		setVisible(true);
 	}
 	
-	private JPanel gameBoard() {
+	private JPanel gameBoard(int width, int height) {
+		buttonArray = new JButton[height][width];
+		int fontSize = 360 / Math.max(width, height);
 		JPanel boardPanel = new JPanel();
-		boardPanel.setLayout(new GridLayout(3, 3));		
-		for (int i = 0; i < 3; i++) {
-			for (int j = 0; j < 3; j++) {
+		boardPanel.setLayout(new GridLayout(height, width));		
+		for (int i = 0; i < height; i++) {
+			for (int j = 0; j < width; j++) {
 				final int row = i;
 				final int col = j;
 				buttonArray[row][col] = new JButton();
-				buttonArray[row][col].setFont(new Font("Arial", Font.PLAIN, 120));
+				buttonArray[row][col].setFont(new Font("Arial", Font.PLAIN, fontSize));
 				buttonArray[row][col].setBorder(new LineBorder(Color.BLACK, 1));
 				boardPanel.add(buttonArray[row][col]);
 			}
@@ -123,6 +126,42 @@ public class View extends JFrame {
 		return boardPanel;
 	}
 	
+	/**
+     * Replaces the game board with an empty board of the specified size,
+     * unless the board already has that size.
+     *
+     * @param width 	the number of columns
+     * @param height 	the number of rows
+     */
+	public void resizeBoard(int width, int height) {
+		if (getBoardWidth() == width && getBoardHeight() == height) {
+			return;
+		}
+		west_panel.remove(boardPanel);
+		boardPanel = gameBoard(width, height);
+		west_panel.add(boardPanel);
+		west_panel.revalidate();
+		west_panel.repaint();
+	}
+	
+	/**
+     * Returns the number of columns of the game board.
+     *
+     * @return the board width
+     */
+	public int getBoardWidth() {
+		return buttonArray[0].length;
+	}
+	
+	/**
+     * Returns the number of rows of the game board.
+     *
+     * @return the board height
+     */
+	public int getBoardHeight() {
+		return buttonArray.length;
+	}
+	
 	/**
      * Updates the game board with the player's move.
      *
@@ -190,8 +229,8 @@ public class View extends JFrame {
      * Disables all buttons on the game board.
      */
 	public void disabledBoard() {
-		for (int i = 0; i < 3; i++) {
-			for (int j = 0; j < 3; j++) {
+		for (int i = 0; i < buttonArray.length; i++) {
+			for (int j = 0; j < buttonArray[i].length; j++) {
 				final int row = i;
 				final int col = j;
 				buttonArray[row][col].setEnabled(false);
@@ -203,8 +242,8 @@ public class View extends JFrame {
      * Enables all buttons on the game board.
      */
 	public void enabledBoard() {
-		for (int i = 0; i < 3; i++) {
-			for (int j = 0; j < 3; j++) {
+		for (int i = 0; i < buttonArray.length; i++) {
+			for (int j = 0; j < buttonArray[i].length; j++) {
 				final int row = i;
 				final int col = j;
 				buttonArray[row][col].setEnabled(true);
@@ -216,8 +255,8 @@ public class View extends JFrame {
      * Resets the game board by clearing all texts in the buttons.
      */
 	public void resetBoard() {
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
+        for (int i = 0; i < buttonArray.length; i++) {
+            for (int j = 0; j < buttonArray[i].length; j++) {
             	final int row = i;
             	final int col = j;
                 buttonArray[row][col].setText("");
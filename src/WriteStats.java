@@ -0,0 +1,63 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The WriteStats class counts the messages the server sends and the socket
+ * writes it needs for them. Messages queued for a client are written
+ * together, so the difference between the two is the number of write
+ * syscalls saved by coalescing.
+ */
+public final class WriteStats {
+	private static final LongAdder messages = new LongAdder();
+	private static final LongAdder writes = new LongAdder();
+
+	private WriteStats() {
+	}
+
+	/**
+     * Records a batch of messages written to a socket with a single write.
+     *
+     * @param messageCount 	the number of messages in the batch
+     */
+	public static void recordWrite(int messageCount) {
+		messages.add(messageCount);
+		writes.increment();
+	}
+
+	/**
+     * Returns the number of messages written to clients.
+     *
+     * @return the message count
+     */
+	public static long getMessages() {
+		return messages.sum();
+	}
+
+	/**
+     * Returns the number of socket writes used for those messages.
+     *
+     * @return the write count
+     */
+	public static long getWrites() {
+		return writes.sum();
+	}
+
+	/**
+     * Returns the number of socket writes saved by coalescing messages.
+     *
+     * @return the number of saved writes
+     */
+	public static long getWritesSaved() {
+		return getMessages() - getWrites();
+	}
+
+	/**
+     * Returns a one-line summary of the counters.
+     *
+     * @return the summary
+     */
+	public static String report() {
+		long m = getMessages();
+		long w = getWrites();
+		return "Messages sent: " + m + ", socket writes: " + w + ", writes saved: " + (m - w);
+	}
+}